@@ -0,0 +1,141 @@
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import model.LiftRideRecordCodec;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+
+
+public class PipelineBenchmark {
+
+  /*
+  end to end run of client -> SkierServlet -> queue -> consumer on one machine, an
+  embedded Tomcat hosts SkierServlet at the same path as the war, the broker is replaced
+  by a RingBufferRideTransport and subscriber threads decode every record like the
+  consumer, the ring is the one transport which counts the rides published and carries
+  their publish time, so it is the only one offered
+
+    mvn -q compile exec:java -Dexec.mainClass=PipelineBenchmark \
+        -Dexec.args="[port] [subscriberThreads] [queueCapacity] [asyncMode]"
+
+  then point the load client at it, e.g. in ClientPart2
+    java -Dserver=localhost:8080 client.MultiThreadCall
+
+  every second it prints published and consumed rides and the publish to consume lag,
+  the totals are printed on exit
+   */
+
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+  private static final Recorder lagRecorder = new Recorder(3);
+  private static final Histogram totalLag = new Histogram(3);
+  private static final LongAdder consumedCount = new LongAdder();
+  private static Histogram intervalLag;
+  // seconds in which anything was consumed, idle time before and after the load is left out
+  private static long activeSeconds;
+
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    int subscriberThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int queueCapacity = args.length > 2 ? Integer.parseInt(args[2]) : 65536;
+    boolean asyncMode = args.length > 3 && Boolean.parseBoolean(args[3]);
+    if (args.length > 4) {
+      throw new IllegalArgumentException("only the ring transport is benchmarked, got " + args[4]);
+    }
+
+    // both ends of the transport are in this process
+    RingBufferRideTransport queue = new RingBufferRideTransport(queueCapacity);
+    queue.subscribe(PipelineBenchmark::consume, subscriberThreads);
+
+    Tomcat tomcat = new Tomcat();
+    tomcat.setPort(port);
+    tomcat.setBaseDir(Files.createTempDirectory("pipeline-benchmark").toString());
+    tomcat.getConnector();
+    Context context = tomcat.addContext("/Server_war", null);
+    context.addApplicationListener(AsyncLogListener.class.getName());
+    Wrapper wrapper = Tomcat.addServlet(context, "SkierServlet", new SkierServlet(queue));
+    wrapper.setAsyncSupported(true);
+    wrapper.addInitParameter("asyncMode", Boolean.toString(asyncMode));
+    wrapper.setLoadOnStartup(1);
+    context.addServletMappingDecoded("/skiers/*", "SkierServlet");
+    Tomcat.addServlet(context, "QueueMetricsServlet", new QueueMetricsServlet());
+    context.addServletMappingDecoded("/metrics/queue", "QueueMetricsServlet");
+    Tomcat.addServlet(context, "MetricsServlet", new MetricsServlet());
+    context.addServletMappingDecoded("/metrics", "MetricsServlet");
+    tomcat.start();
+    System.out.println("SkierServlet listening on http://localhost:" + port + "/Server_war/skiers/"
+        + ", ring transport, " + subscriberThreads + " subscriber threads, queue capacity "
+        + queueCapacity
+        + (asyncMode ? ", async mode" : ""));
+
+    ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+    long[] lastCounts = new long[2];
+    reporter.scheduleAtFixedRate(() -> report(queue, lastCounts), 1, 1, TimeUnit.SECONDS);
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      reporter.shutdownNow();
+      try {
+        tomcat.stop();
+        tomcat.destroy();
+      } catch (Exception e) {
+        System.err.println("Failed to stop tomcat: " + e.getMessage());
+      }
+      queue.close();
+      printTotals(queue);
+    }));
+    tomcat.getServer().await();
+  }
+
+  private static void consume(ByteBuffer record, int base, long rideID, long publishNanos) {
+    // the same field reads the consumer does before it applies a ride
+    int sum = LiftRideRecordCodec.getSkierID(record, base) + LiftRideRecordCodec.getResortID(record, base)
+        + LiftRideRecordCodec.getLiftID(record, base) + LiftRideRecordCodec.getTime(record, base)
+        + LiftRideRecordCodec.getSeasonID(record, base) + LiftRideRecordCodec.getDayID(record, base);
+    if (sum == 0) {
+      throw new IllegalStateException("empty record");
+    }
+    if (publishNanos >= 0) {
+      lagRecorder.recordValue(System.nanoTime() - publishNanos);
+    }
+    consumedCount.increment();
+  }
+
+  private static synchronized void report(RingBufferRideTransport queue, long[] lastCounts) {
+    intervalLag = lagRecorder.getIntervalHistogram(intervalLag);
+    totalLag.add(intervalLag);
+    long published = queue.getPublishedCount();
+    long consumed = consumedCount.sum();
+    System.out.printf("published %7d/s  consumed %7d/s  depth %6d  lag p50 %8.3f ms  p99 %8.3f ms  max %8.3f ms%n",
+        published - lastCounts[0], consumed - lastCounts[1], queue.getDepth(),
+        intervalLag.getValueAtPercentile(50) / NANOS_PER_MILLI,
+        intervalLag.getValueAtPercentile(99) / NANOS_PER_MILLI,
+        intervalLag.getMaxValue() / NANOS_PER_MILLI);
+    if (consumed > lastCounts[1]) {
+      activeSeconds += 1;
+    }
+    lastCounts[0] = published;
+    lastCounts[1] = consumed;
+  }
+
+  private static synchronized void printTotals(RingBufferRideTransport queue) {
+    totalLag.add(lagRecorder.getIntervalHistogram());
+    long consumed = consumedCount.sum();
+    System.out.println("Summary:");
+    System.out.println("Published rides: " + queue.getPublishedCount());
+    System.out.println("Consumed rides: " + consumed);
+    if (activeSeconds > 0) {
+      System.out.println("Throughput: " + consumed / activeSeconds + " rides/second over " + activeSeconds + " s");
+    }
+    if (totalLag.getTotalCount() > 0) {
+      System.out.println("Mean publish to consume lag: " + totalLag.getMean() / NANOS_PER_MILLI + " ms");
+      System.out.println("P99 publish to consume lag: " + totalLag.getValueAtPercentile(99) / NANOS_PER_MILLI + " ms");
+      System.out.println("Max publish to consume lag: " + totalLag.getMaxValue() / NANOS_PER_MILLI + " ms");
+    }
+  }
+}
@@ -0,0 +1,270 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import model.LiftRideRecord;
+import model.LiftRideRecordCodec;
+
+
+public class RingBufferRideTransport implements RidePublisher, RideSubscriber {
+
+  /*
+  in-JVM transport in the style of the LMAX Disruptor, records are encoded straight into
+  a preallocated byte array of capacity slots, nothing is allocated per ride
+
+    publishers   claim the next sequence with a CAS on the claim cursor, write the slot
+                 and mark it available with the round number of the sequence
+    subscribers  a worker pool, each worker claims the next sequence with a CAS on the
+                 work sequence and waits until that slot is available
+
+  a publisher never waits, when the slowest worker is a full ring behind the publish
+  fails like a full broker buffer, idle workers spin, then yield, then park
+   */
+
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 100;
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final int capacity;
+  private final int mask;
+  private final int indexShift;
+  private final byte[] records;
+  private final ByteBuffer recordView;
+  private final long[] publishNanos;
+  // round number of the sequence last published into each slot
+  private final AtomicIntegerArray available;
+
+  private final Sequence claimSequence = new Sequence(-1);
+  private final Sequence workSequence = new Sequence(-1);
+  private volatile Sequence[] workerSequences = new Sequence[0];
+  // lowest worker sequence seen last time, saves a scan of the workers on most publishes
+  private volatile long cachedGatingSequence = -1;
+  private volatile boolean running = true;
+  private Thread[] workers = new Thread[0];
+
+  public RingBufferRideTransport(int capacity) {
+    if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+    }
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    this.indexShift = Integer.numberOfTrailingZeros(capacity);
+    this.records = new byte[capacity * LiftRideRecordCodec.RECORD_SIZE];
+    this.recordView = ByteBuffer.wrap(records).asReadOnlyBuffer();
+    this.publishNanos = new long[capacity];
+    this.available = new AtomicIntegerArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      available.set(i, -1);
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> publish(LiftRideRecord record) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    if (!running) {
+      future.completeExceptionally(new IllegalStateException("Ring buffer is closed"));
+      return future;
+    }
+    int seasonID;
+    int dayID;
+    try {
+      // everything that can fail happens before a slot is claimed, a claimed slot must be published
+      seasonID = Integer.parseInt(record.getSeasonID());
+      dayID = Integer.parseInt(record.getDayID());
+    } catch (NumberFormatException e) {
+      future.completeExceptionally(e);
+      return future;
+    }
+    if (seasonID < 0 || seasonID > 0xFFFF || dayID < 0 || dayID > 0xFFFF) {
+      future.completeExceptionally(new IllegalArgumentException("seasonID and dayID must fit in 16 bits"));
+      return future;
+    }
+    long sequence = tryClaim();
+    if (sequence < 0) {
+      future.completeExceptionally(new IllegalStateException("Ring buffer is full"));
+      return future;
+    }
+    int slot = (int) sequence & mask;
+    LiftRideRecordCodec.encode(ByteBuffer.wrap(records, slot * LiftRideRecordCodec.RECORD_SIZE,
+        LiftRideRecordCodec.RECORD_SIZE), record.getSkierID(), record.getResortID(),
+        record.getLiftID(), seasonID, dayID, record.getTime());
+    publishNanos[slot] = System.nanoTime();
+    // release, the record and its time are visible to a worker that sees the round
+    available.lazySet(slot, (int) (sequence >>> indexShift));
+    future.complete(null);
+    return future;
+  }
+
+  /*
+  the rides of a batch take count consecutive slots claimed with one CAS, so they are
+  not interleaved with other publishers' rides
+   */
+  @Override
+  public CompletableFuture<boolean[]> publishBatch(byte[] records, int count) {
+    CompletableFuture<boolean[]> future = new CompletableFuture<>();
+    if (!running) {
+      future.completeExceptionally(new IllegalStateException("Ring buffer is closed"));
+      return future;
+    }
+    if (count > capacity) {
+      future.completeExceptionally(new IllegalArgumentException("Batch of " + count
+          + " rides does not fit a ring of " + capacity));
+      return future;
+    }
+    if (count == 0) {
+      future.complete(new boolean[0]);
+      return future;
+    }
+    long last = tryClaim(count);
+    if (last < 0) {
+      future.completeExceptionally(new IllegalStateException("Ring buffer is full"));
+      return future;
+    }
+    long now = System.nanoTime();
+    for (long sequence = last - count + 1; sequence <= last; sequence++) {
+      int slot = (int) sequence & mask;
+      int from = (int) (sequence - (last - count + 1)) * LiftRideRecordCodec.RECORD_SIZE;
+      System.arraycopy(records, from, this.records, slot * LiftRideRecordCodec.RECORD_SIZE,
+          LiftRideRecordCodec.RECORD_SIZE);
+      publishNanos[slot] = now;
+      available.lazySet(slot, (int) (sequence >>> indexShift));
+    }
+    // all or none, the slots were claimed together
+    boolean[] published = new boolean[count];
+    Arrays.fill(published, true);
+    future.complete(published);
+    return future;
+  }
+
+  private long tryClaim() {
+    return tryClaim(1);
+  }
+
+  /*
+  claims count sequences, returns the last of them or -1 when the ring has no room
+   */
+  private long tryClaim(int count) {
+    long current;
+    long next;
+    do {
+      current = claimSequence.get();
+      next = current + count;
+      long wrapPoint = next - capacity;
+      if (wrapPoint > cachedGatingSequence) {
+        long gating = minimumWorkerSequence(current);
+        cachedGatingSequence = gating;
+        if (wrapPoint > gating) {
+          return -1;
+        }
+      }
+    } while (!claimSequence.compareAndSet(current, next));
+    return next;
+  }
+
+  private long minimumWorkerSequence(long minimum) {
+    Sequence[] sequences = workerSequences;
+    // before anyone subscribed the ring fills up and then rejects, like a queue with no consumer
+    long gating = Math.min(minimum, workSequence.get());
+    for (Sequence sequence : sequences) {
+      gating = Math.min(gating, sequence.get());
+    }
+    return gating;
+  }
+
+  @Override
+  public synchronized void subscribe(RideHandler handler, int threads) {
+    if (workers.length > 0) {
+      throw new IllegalStateException("Ring buffer already has subscribers");
+    }
+    Sequence[] sequences = new Sequence[threads];
+    Thread[] threadArray = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      sequences[i] = new Sequence(workSequence.get());
+      Sequence sequence = sequences[i];
+      threadArray[i] = new Thread(() -> workLoop(handler, sequence), "ring-buffer-worker-" + i);
+      threadArray[i].setDaemon(true);
+    }
+    workerSequences = sequences;
+    workers = threadArray;
+    for (Thread worker : threadArray) {
+      worker.start();
+    }
+  }
+
+  private void workLoop(RideHandler handler, Sequence sequence) {
+    long next = 0;
+    boolean claimNext = true;
+    int idleCount = 0;
+    while (true) {
+      if (claimNext) {
+        do {
+          next = workSequence.get() + 1;
+          // everything before the claimed sequence is done as far as this worker is concerned
+          sequence.set(next - 1);
+        } while (!workSequence.compareAndSet(next - 1, next));
+        claimNext = false;
+      }
+      int slot = (int) next & mask;
+      if (available.get(slot) == (int) (next >>> indexShift)) {
+        try {
+          // in process, a ride is handed over once
+          handler.onRide(recordView, slot * LiftRideRecordCodec.RECORD_SIZE, -1, publishNanos[slot]);
+        } catch (RuntimeException e) {
+          AsyncLog.error("rideHandlerFailed", e, "transport", "ring");
+        }
+        claimNext = true;
+        idleCount = 0;
+      } else if (!running && next > claimSequence.get()) {
+        // closed and nothing left that was ever claimed by a publisher
+        sequence.set(Long.MAX_VALUE);
+        return;
+      } else {
+        idleCount += 1;
+        if (idleCount > SPIN_TRIES + YIELD_TRIES) {
+          LockSupport.parkNanos(PARK_NANOS);
+        } else if (idleCount > SPIN_TRIES) {
+          Thread.yield();
+        }
+      }
+    }
+  }
+
+  public long getPublishedCount() {
+    return claimSequence.get() + 1;
+  }
+
+  @Override
+  public long getDepth() {
+    return claimSequence.get() - minimumWorkerSequence(claimSequence.get());
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    for (Thread worker : workers) {
+      try {
+        // workers drain what was published before they exit
+        worker.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /*
+  a sequence on its own cache lines, so the claim cursor, the work sequence and the
+  worker sequences written by different threads do not invalidate each other
+   */
+  private static class Sequence extends AtomicLong {
+    @SuppressWarnings("unused")
+    private long p1, p2, p3, p4, p5, p6, p7;
+
+    private Sequence(long initialValue) {
+      super(initialValue);
+    }
+  }
+}
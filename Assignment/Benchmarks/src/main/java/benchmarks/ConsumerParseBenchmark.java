@@ -0,0 +1,65 @@
+package benchmarks;
+
+import model.LiftRideRecord;
+import model.LiftRideRecordCodec;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ConsumerParseBenchmark {
+
+  /*
+  turning one delivery body into the fields the consumer stores, the original
+  ConsumerThread decoded the bytes to a String and parsed a Gson JsonObject, the current
+  one reads the fields of the binary record in place
+   */
+
+  private final Gson gson = new Gson();
+  private byte[] jsonBody;
+  private byte[] binaryBody;
+
+  public ConsumerParseBenchmark() {
+    LiftRideRecord record = new LiftRideRecord(81234, 7, 23, "2024", "1", 217);
+    jsonBody = gson.toJson(record).getBytes(StandardCharsets.UTF_8);
+    binaryBody = LiftRideRecordCodec.encode(record);
+  }
+
+  @Benchmark
+  public long gsonJsonObject() {
+    JsonObject jsonObject = gson.fromJson(new String(jsonBody, StandardCharsets.UTF_8), JsonObject.class);
+    return jsonObject.get("skierID").getAsInt()
+        + jsonObject.get("resortID").getAsInt()
+        + jsonObject.get("liftID").getAsInt()
+        + jsonObject.get("time").getAsInt()
+        + jsonObject.get("seasonID").getAsInt()
+        + jsonObject.get("dayID").getAsInt();
+  }
+
+  @Benchmark
+  public long binaryCodec() {
+    ByteBuffer buffer = ByteBuffer.wrap(binaryBody);
+    return LiftRideRecordCodec.getSkierID(buffer, 0)
+        + LiftRideRecordCodec.getResortID(buffer, 0)
+        + LiftRideRecordCodec.getLiftID(buffer, 0)
+        + LiftRideRecordCodec.getTime(buffer, 0)
+        + LiftRideRecordCodec.getSeasonID(buffer, 0)
+        + LiftRideRecordCodec.getDayID(buffer, 0);
+  }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import model.LiftRideRecord;
+import model.LiftRideRecordCodec;
+import com.google.gson.Gson;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class RecordSerializationBenchmark {
+
+  /*
+  the message body published for one lift ride, Gson json, the toString form the first
+  producer published, and the 20 byte LiftRideRecordCodec record written into a reused
+  buffer, each benchmark ends with the bytes that go to the queue
+   */
+
+  private final Gson gson = new Gson();
+  private final LiftRideRecord record = new LiftRideRecord(81234, 7, 23, "2024", "1", 217);
+  private final ByteBuffer buffer = ByteBuffer.allocate(LiftRideRecordCodec.RECORD_SIZE);
+
+  @Benchmark
+  public byte[] gsonJson() {
+    return gson.toJson(record).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public byte[] toStringBytes() {
+    return record.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public byte[] binaryCodec() {
+    return LiftRideRecordCodec.encode(record);
+  }
+
+  @Benchmark
+  public ByteBuffer binaryCodecReusedBuffer() {
+    buffer.clear();
+    LiftRideRecordCodec.encode(buffer, record);
+    return buffer;
+  }
+}
@@ -0,0 +1,97 @@
+package benchmarks;
+
+import model.LiftRideRecord;
+import store.SkierStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SkierStoreBenchmark {
+
+  /*
+  consumer writes under contention, the original ConcurrentHashMap of synchronizedLists
+  against the striped primitive SkierStore, run once per thread count
+
+    for t in 1 2 4 8 16 32; do java -jar target/benchmarks.jar SkierStoreBenchmark -t $t; done
+
+  both stores are rebuilt every iteration so memory does not grow over the run
+   */
+
+  private static final int RIDES_PER_THREAD = 4096;
+  private static final int SKIER_ID_MAX = 100000;
+
+  @State(Scope.Benchmark)
+  public static class Stores {
+    Map<Integer, List<LiftRideRecord>> record;
+    SkierStore store;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+      record = new ConcurrentHashMap<>();
+      store = new SkierStore(256);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Rides {
+    final LiftRideRecord[] rides = new LiftRideRecord[RIDES_PER_THREAD];
+    int next;
+
+    @Setup
+    public void setUp() {
+      SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+      for (int i = 0; i < RIDES_PER_THREAD; i++) {
+        rides[i] = new LiftRideRecord(random.nextInt(SKIER_ID_MAX) + 1, random.nextInt(10) + 1,
+            random.nextInt(40) + 1, "2024", "1", random.nextInt(360) + 1);
+      }
+    }
+
+    LiftRideRecord next() {
+      LiftRideRecord ride = rides[next];
+      next = (next + 1) & (RIDES_PER_THREAD - 1);
+      return ride;
+    }
+  }
+
+  @Benchmark
+  public Object concurrentHashMapSynchronizedList(Stores stores, Rides rides) {
+    // the same check-then-put ConsumerThread used, records stand in for the parsed JsonObjects
+    LiftRideRecord ride = rides.next();
+    Integer skierID = ride.getSkierID();
+    if (stores.record.containsKey(skierID)) {
+      stores.record.get(skierID).add(ride);
+    } else {
+      List<LiftRideRecord> rideList = Collections.synchronizedList(new ArrayList<>());
+      rideList.add(ride);
+      stores.record.put(skierID, rideList);
+    }
+    return stores.record;
+  }
+
+  @Benchmark
+  public boolean primitiveSkierStore(Stores stores, Rides rides) {
+    LiftRideRecord ride = rides.next();
+    return stores.store.addRide(ride.getSkierID(), ride.getResortID(), 2024, 1, ride.getLiftID(),
+        ride.getTime());
+  }
+}
@@ -0,0 +1,93 @@
+package benchmarks;
+
+import model.SkierUrlPath;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class UrlValidationBenchmark {
+
+  /*
+  SkierServlet url validation, the original split + Double.parseDouble check against the
+  index based SkierUrlPath parser, over a mix of valid and invalid paths
+   */
+
+  private static final String[] PATHS = {
+      "/7/seasons/2024/days/1/skiers/81234",
+      "/1/seasons/2024/days/1/skiers/1",
+      "/10/seasons/2024/days/1/skiers/100000/",
+      "/3/seasons/2024/days/1/skiers/42",
+      "/11/seasons/2024/days/1/skiers/42",
+      "/3/seasons/2023/days/1/skiers/42",
+      "/3/seasons/2024/day/1/skiers/42",
+      "/x/seasons/2024/days/1/skiers/42",
+  };
+
+  private final SkierUrlPath skierUrlPath = new SkierUrlPath();
+  private int next;
+
+  private String nextPath() {
+    String path = PATHS[next];
+    next = (next + 1) & (PATHS.length - 1);
+    return path;
+  }
+
+  @Benchmark
+  public boolean splitAndParseDouble() {
+    return isUrlValid(nextPath().split("/"));
+  }
+
+  @Benchmark
+  public boolean handWrittenParser() {
+    return skierUrlPath.parse(nextPath());
+  }
+
+  // the validation SkierServlet shipped with before SkierUrlPath
+  private static boolean isUrlValid(String[] urlPath) {
+    String dayID = "1";
+    String seasonID = "2024";
+    int resortID_Max = 10;
+    int resortID_Min = 1;
+    int skierID_Max = 100000;
+    int skierID_Min = 1;
+
+    if (urlPath.length == 8) {
+      return urlPath[2].equals("seasons")
+          && urlPath[4].equals("days")
+          && urlPath[6].equals("skiers")
+          && isNumeric(urlPath[1])
+          && isNumeric(urlPath[3])
+          && isNumeric(urlPath[5])
+          && isNumeric(urlPath[7])
+          && urlPath[5].equals(dayID)
+          && urlPath[3].equals(seasonID)
+          && Integer.parseInt(urlPath[1]) >= resortID_Min
+          && Integer.parseInt(urlPath[1]) <= resortID_Max
+          && Integer.parseInt(urlPath[7]) >= skierID_Min
+          && Integer.parseInt(urlPath[7]) <= skierID_Max;
+    }
+    return false;
+  }
+
+  private static boolean isNumeric(String str) {
+    try {
+      Double.parseDouble(str);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+}
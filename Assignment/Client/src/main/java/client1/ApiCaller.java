@@ -67,7 +67,7 @@ public class ApiCaller implements Runnable {
 
       try {
         LiftRideRecord record = liftRideRecordBlockingQueue.take();
-        boolean checkSuccess = postApiCall(skiersApi, record);
+        boolean checkSuccess = postApiCall(skiersApi, record, retryCount);
         if ( checkSuccess ) {
           tmpSuccessCount += 1;
         }
@@ -85,7 +85,7 @@ public class ApiCaller implements Runnable {
   }
 
 
-  private boolean postApiCall(SkiersApi skiersApi, LiftRideRecord liftRideRecord) {
+  static boolean postApiCall(SkiersApi skiersApi, LiftRideRecord liftRideRecord, int retryCount) {
     // post an api call with retry strategy
 
     int tryCount = 0;
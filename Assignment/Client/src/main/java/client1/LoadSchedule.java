@@ -0,0 +1,105 @@
+package client1;
+
+public class LoadSchedule {
+
+  /*
+  target request rate over time for the open-loop harness
+
+    constant <rps> <seconds>                            the same rate for the whole run
+    ramp <fromRps> <toRps> <seconds>                    linear change from one rate to another
+    step <startRps> <stepRps> <stepSeconds> <steps>     rate raised by stepRps every stepSeconds
+
+  the schedule only decides when a request is due, requests are never delayed because an
+  earlier one is still waiting for its response
+   */
+
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+  // keeps the gap between two requests finite when a ramp starts at zero
+  private static final double MIN_RPS = 1.0;
+
+  private final String description;
+  private final double startRps;
+  private final double endRps;
+  private final double stepRps;
+  private final int stepSeconds;
+  private final int durationSeconds;
+
+  private LoadSchedule(String description, double startRps, double endRps, double stepRps,
+      int stepSeconds, int durationSeconds) {
+    if (durationSeconds <= 0) {
+      throw new IllegalArgumentException("schedule duration must be positive: " + durationSeconds);
+    }
+    this.description = description;
+    this.startRps = startRps;
+    this.endRps = endRps;
+    this.stepRps = stepRps;
+    this.stepSeconds = stepSeconds;
+    this.durationSeconds = durationSeconds;
+  }
+
+  public static LoadSchedule constant(double rps, int seconds) {
+    return new LoadSchedule("constant " + rps + " rps for " + seconds + " s", rps, rps, 0, seconds, seconds);
+  }
+
+  public static LoadSchedule ramp(double fromRps, double toRps, int seconds) {
+    return new LoadSchedule("ramp " + fromRps + " -> " + toRps + " rps over " + seconds + " s",
+        fromRps, toRps, 0, seconds, seconds);
+  }
+
+  public static LoadSchedule step(double startRps, double stepRps, int stepSeconds, int steps) {
+    return new LoadSchedule("step " + startRps + " rps + " + stepRps + " rps every " + stepSeconds
+        + " s, " + steps + " steps", startRps, startRps + stepRps * (steps - 1), stepRps,
+        stepSeconds, stepSeconds * steps);
+  }
+
+  public static LoadSchedule parse(String[] args, int from) {
+    switch (args[from]) {
+      case "constant":
+        return constant(Double.parseDouble(args[from + 1]), Integer.parseInt(args[from + 2]));
+      case "ramp":
+        return ramp(Double.parseDouble(args[from + 1]), Double.parseDouble(args[from + 2]),
+            Integer.parseInt(args[from + 3]));
+      case "step":
+        return step(Double.parseDouble(args[from + 1]), Double.parseDouble(args[from + 2]),
+            Integer.parseInt(args[from + 3]), Integer.parseInt(args[from + 4]));
+      default:
+        throw new IllegalArgumentException("unknown schedule: " + args[from]);
+    }
+  }
+
+  public double rateAt(long offsetNanos) {
+    double seconds = (double) offsetNanos / NANOS_PER_SECOND;
+    double rps;
+    if (stepRps != 0) {
+      rps = startRps + stepRps * Math.floor(seconds / stepSeconds);
+    } else {
+      rps = startRps + (endRps - startRps) * Math.min(1.0, seconds / durationSeconds);
+    }
+    return Math.max(MIN_RPS, rps);
+  }
+
+  /*
+  offset from the start of the run at which the request after the one due at offsetNanos
+  is due, past getDurationNanos() the schedule is over
+   */
+  public long nextSendOffsetNanos(long offsetNanos) {
+    return offsetNanos + (long) (NANOS_PER_SECOND / rateAt(offsetNanos));
+  }
+
+  public long getDurationNanos() {
+    return durationSeconds * NANOS_PER_SECOND;
+  }
+
+  public int countRequests() {
+    int count = 0;
+    for (long offset = 0; offset < getDurationNanos(); offset = nextSendOffsetNanos(offset)) {
+      count += 1;
+    }
+    return count;
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+}
@@ -10,14 +10,31 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import io.swagger.client.api.SkiersApi;
 import model.LiftRideRecord;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
 
 public class MultiThreadCall {
 
+  /*
+  usage: MultiThreadCall                                     32 + 100 threads in two phases
+         MultiThreadCall open <senderThreads> <schedule>     open loop at the rates of a LoadSchedule,
+                                                             e.g. open 200 constant 1000 60
+   */
+
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+
   public static void main(String[] args) throws InterruptedException {
 
 //    final String ipAddress = "localhost:8080";
     final String ipAddress = "34.220.164.24:8080";
+    if (args.length > 2 && args[0].equals("open")) {
+      runOpenLoop(ipAddress, Integer.parseInt(args[1]), LoadSchedule.parse(args, 2));
+      return;
+    }
     final int numberOfThreadForProcess1 = 32;
     final int numberOfThreadForProcess2 = 100;
     ExecutorService executor = Executors.newFixedThreadPool(numberOfThreadForProcess1 + numberOfThreadForProcess2);
@@ -68,4 +85,68 @@ public class MultiThreadCall {
     System.out.println("Response Time: "+((double)(latency)/(requestSuccessCount.get()+requestFailureCount.get())) + " ms/request");
     System.out.println("RPS: " +  (requestSuccessCount.get() + requestFailureCount.get() )  * oneThousandMillionSecond / latency + " requests/second");
   }
+
+  private static void runOpenLoop(String ipAddress, int senderThreads, LoadSchedule schedule) throws InterruptedException {
+    final int requestCount = schedule.countRequests();
+    final int tryCount = 5;
+    BlockingQueue<LiftRideRecord> liftRideRecordBlockingQueue = new LinkedBlockingQueue<>();
+    AtomicInteger requestSuccessCount = new AtomicInteger(0);
+    AtomicInteger requestFailureCount = new AtomicInteger(0);
+    // requests are recorded from several sender threads at once
+    Histogram latencyHistogram = new ConcurrentHistogram(3);
+    // the queue in front of the senders is unbounded, so the schedule never waits for a free thread
+    ExecutorService executor = Executors.newFixedThreadPool(senderThreads);
+    ThreadLocal<SkiersApi> skiersApis = ThreadLocal.withInitial(() -> {
+      SkiersApi skiersApi = new SkiersApi();
+      skiersApi.getApiClient().setBasePath("http://" + ipAddress + "/Server_war/");
+      return skiersApi;
+    });
+
+    CountDownLatch producerLatch = new CountDownLatch(requestCount);
+    LiftRecordProducer liftRecordProducer = new LiftRecordProducer(liftRideRecordBlockingQueue, requestCount, producerLatch);
+    Thread producerThread = new Thread(liftRecordProducer);
+    producerThread.start();
+    // generation is not part of the schedule, every record exists before the first one is due
+    producerLatch.await();
+
+    long runStartTime = System.nanoTime();
+    for (long offset = 0; offset < schedule.getDurationNanos(); offset = schedule.nextSendOffsetNanos(offset)) {
+      long intendedStartTime = runStartTime + offset;
+      long waitTime;
+      while ((waitTime = intendedStartTime - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(waitTime);
+      }
+      LiftRideRecord record = liftRideRecordBlockingQueue.take();
+      executor.submit(() -> {
+        boolean checkSuccess = ApiCaller.postApiCall(skiersApis.get(), record, tryCount);
+        // measured from the intended start, time spent queued behind slow requests counts too
+        latencyHistogram.recordValue(System.nanoTime() - intendedStartTime);
+        if (checkSuccess) {
+          requestSuccessCount.incrementAndGet();
+        } else {
+          requestFailureCount.incrementAndGet();
+        }
+      });
+    }
+    long sendEndTime = System.nanoTime();
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.HOURS);
+    long runEndTime = System.nanoTime();
+
+    int completed = requestSuccessCount.get() + requestFailureCount.get();
+    double scheduleSeconds = schedule.getDurationNanos() / (double) NANOS_PER_SECOND;
+    System.out.println("Summary:");
+    System.out.println("Schedule: " + schedule + ", sender threads: " + senderThreads);
+    System.out.println("Number of successful requests: " + requestSuccessCount.get());
+    System.out.println("Number of fail requests: " + requestFailureCount.get());
+    System.out.println("Target RPS: " + requestCount / scheduleSeconds + " requests/second");
+    System.out.println("Offered RPS: " + requestCount * (double) NANOS_PER_SECOND / (sendEndTime - runStartTime) + " requests/second");
+    System.out.println("Achieved RPS: " + completed * (double) NANOS_PER_SECOND / (runEndTime - runStartTime) + " requests/second");
+    if (latencyHistogram.getTotalCount() > 0) {
+      System.out.println("Mean Response Time: " + latencyHistogram.getMean() / NANOS_PER_MILLI + " ms");
+      System.out.println("Median Response Time: " + latencyHistogram.getValueAtPercentile(50) / NANOS_PER_MILLI + " ms");
+      System.out.println("P99 Response Time: " + latencyHistogram.getValueAtPercentile(99) / NANOS_PER_MILLI + " ms");
+      System.out.println("Max Response Time: " + latencyHistogram.getMaxValue() / NANOS_PER_MILLI + " ms");
+    }
+  }
 }
@@ -11,14 +11,10 @@ import io.swagger.client.ApiException;
 import io.swagger.client.ApiResponse;
 import io.swagger.client.api.SkiersApi;
 import io.swagger.client.model.LiftRide;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.List;
 import model.LiftRideRecord;
-import model.ResponseData;
+import org.HdrHistogram.Histogram;
 
 
 public class ApiCaller implements Runnable {
@@ -30,33 +26,62 @@ public class ApiCaller implements Runnable {
   private int retryCount;
 
   private String ipAddress;
-  private Integer requestCount;
-  private BlockingQueue<LiftRideRecord> liftRideRecordBlockingQueue;
+  private RideSupply.Slice rides;
   private AtomicInteger requestSuccessCount;
   private AtomicInteger requestFailureCount;
   private CountDownLatch startLatch;
 
-  private List<ResponseData> responseDataList;
+  // by default only written by this caller's thread and merged by the harness once the caller is done
+  private final Histogram latencyHistogram;
+  // optional per second view of the run, null when the harness does not sample
+  private final LiveSampler liveSampler;
 
   /*
   Constructor
    */
   public ApiCaller(String ipAddress,
-      BlockingQueue<LiftRideRecord> liftRideRecordBlockingQueue,
-      Integer requestCount,
+      RideSupply.Slice rides,
+      AtomicInteger requestSuccessCount,
+      AtomicInteger requestFailureCount,
+      CountDownLatch startLatch,
+      Integer retryCount) {
+    this(ipAddress, rides, requestSuccessCount,
+        requestFailureCount, startLatch, retryCount, LatencyReport.newHistogram());
+  }
+
+  /*
+  Constructor for callers which record into a shared, thread safe histogram
+   */
+  public ApiCaller(String ipAddress,
+      RideSupply.Slice rides,
       AtomicInteger requestSuccessCount,
       AtomicInteger requestFailureCount,
       CountDownLatch startLatch,
       Integer retryCount,
-      List<ResponseData> responseDataList) {
-    this.requestCount = requestCount;
+      Histogram latencyHistogram) {
+    this(ipAddress, rides, requestSuccessCount, requestFailureCount, startLatch, retryCount,
+        latencyHistogram, null);
+  }
+
+  /*
+  Constructor for callers which also feed a live sampler
+   */
+  public ApiCaller(String ipAddress,
+      RideSupply.Slice rides,
+      AtomicInteger requestSuccessCount,
+      AtomicInteger requestFailureCount,
+      CountDownLatch startLatch,
+      Integer retryCount,
+      Histogram latencyHistogram,
+      LiveSampler liveSampler) {
     this.ipAddress = ipAddress;
-    this.liftRideRecordBlockingQueue = liftRideRecordBlockingQueue;
+    this.rides = rides;
     this.requestSuccessCount = requestSuccessCount;
     this.requestFailureCount = requestFailureCount;
     this.startLatch = startLatch;
     this.retryCount = retryCount;
-    this.responseDataList = responseDataList;
+    this.latencyHistogram = latencyHistogram;
+    this.liveSampler = liveSampler;
   }
 
 
@@ -73,17 +98,15 @@ public class ApiCaller implements Runnable {
     int tmpSuccessCount = 0;
     int tmpRequestCount = 0;
 
-    while (tmpRequestCount < requestCount) {
+    while (rides.hasNext()) {
 
-      try {
-        LiftRideRecord record = liftRideRecordBlockingQueue.take();
-        boolean checkSuccess = postApiCall(skiersApi, record);
-        if ( checkSuccess ) {
-          tmpSuccessCount += 1;
-        }
-
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
+      LiftRideRecord record = rides.next();
+      boolean checkSuccess = postApiCall(skiersApi, record);
+      if (liveSampler != null) {
+        liveSampler.recordResult(checkSuccess);
+      }
+      if ( checkSuccess ) {
+        tmpSuccessCount += 1;
       }
       tmpRequestCount += 1;
     }
@@ -102,7 +125,7 @@ public class ApiCaller implements Runnable {
     LiftRide liftRide = new LiftRide();
     liftRide.setTime(liftRideRecord.getTime());
     liftRide.setLiftID(liftRideRecord.getLiftID());
-    long startTime = System.currentTimeMillis();
+    long startTime = System.nanoTime();
 
     while (tryCount < retryCount) {
       try {
@@ -112,11 +135,9 @@ public class ApiCaller implements Runnable {
             liftRideRecord.getDayID(),
             liftRideRecord.getSkierID());
 
-        long endTime = System.currentTimeMillis();
-        long latency = endTime - startTime;
-        responseDataList.add(new ResponseData(startTime, latency, response.getStatusCode()));
         if (response.getStatusCode() == HTTP_OK || response.getStatusCode() == HTTP_CREATED) {
-
+          // one sample per request, from its start to its final outcome, retries included
+          recordLatency(System.nanoTime() - startTime);
           return true;
         } else if (response.getStatusCode() == SC_NOT_FOUND || response.getStatusCode() == SC_BAD_REQUEST) {
           tryCount += 1;
@@ -124,12 +145,21 @@ public class ApiCaller implements Runnable {
       } catch (ApiException e) {
         tryCount += 1;
         e.printStackTrace();
-        long endTime = System.currentTimeMillis();
-        long latency = endTime - startTime;
-        responseDataList.add(new ResponseData(startTime, latency, e.getCode()));
       }
     }
+    recordLatency(System.nanoTime() - startTime);
     return false;
   }
+
+  private void recordLatency(long latencyNanos) {
+    latencyHistogram.recordValue(latencyNanos);
+    if (liveSampler != null) {
+      liveSampler.recordLatency(latencyNanos);
+    }
+  }
+
+  public Histogram getLatencyHistogram() {
+    return latencyHistogram;
+  }
 }
 
@@ -0,0 +1,166 @@
+package client;
+
+import static java.net.HttpURLConnection.HTTP_CREATED;
+import static java.net.HttpURLConnection.HTTP_OK;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import model.LiftRideRecord;
+import org.HdrHistogram.Histogram;
+
+
+public class AsyncApiCaller {
+
+  /*
+  non-blocking engine for the same POST as ApiCaller, requests are sent with
+  HttpClient.sendAsync over keep-alive connections, at most maxInFlight requests are
+  outstanding, and a failed request is retried after an exponential backoff with full
+  jitter scheduled on a timer, so a handful of threads drive the whole load
+   */
+
+  private static final long BASE_BACKOFF_MILLIS = 10;
+  private static final long MAX_BACKOFF_MILLIS = 2000;
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+  private final String basePath;
+  private final int retryCount;
+  private final int maxInFlight;
+  private final Semaphore inFlight;
+  private final ExecutorService httpExecutor;
+  private final ScheduledExecutorService retryScheduler;
+  private final HttpClient httpClient;
+
+  private final AtomicInteger requestSuccessCount;
+  private final AtomicInteger requestFailureCount;
+  // completions arrive on several client threads, so they share one wait-free histogram
+  private final Histogram latencyHistogram = LatencyReport.newSharedHistogram();
+  // optional per second view of the run, null when the harness does not sample
+  private final LiveSampler liveSampler;
+
+  public AsyncApiCaller(String ipAddress,
+      int maxInFlight,
+      int numberOfThread,
+      boolean http2,
+      Integer retryCount,
+      AtomicInteger requestSuccessCount,
+      AtomicInteger requestFailureCount,
+      LiveSampler liveSampler) {
+    this.basePath = "http://" + ipAddress + "/Server_war";
+    this.retryCount = retryCount;
+    this.maxInFlight = maxInFlight;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.requestSuccessCount = requestSuccessCount;
+    this.requestFailureCount = requestFailureCount;
+    this.liveSampler = liveSampler;
+    this.httpExecutor = Executors.newFixedThreadPool(numberOfThread);
+    this.retryScheduler = Executors.newSingleThreadScheduledExecutor();
+    // HTTP/2 falls back to HTTP/1.1 when the server does not accept the upgrade
+    this.httpClient = HttpClient.newBuilder()
+        .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+        .executor(httpExecutor)
+        .connectTimeout(REQUEST_TIMEOUT)
+        .build();
+  }
+
+  /*
+  sends every record of the slice and returns once all of them succeeded or ran out of
+  retries
+   */
+  public void run(RideSupply.Slice rides) throws InterruptedException {
+    while (rides.hasNext()) {
+      LiftRideRecord record = rides.next();
+      // the window is the only place the sending thread ever waits
+      inFlight.acquire();
+      send(buildRequest(record), 0, System.nanoTime());
+    }
+    awaitCompletion();
+  }
+
+  /*
+  open-loop send, latency is measured from the time the request was due rather than from
+  the time a slot in the window became free, so waiting on a slow server is not hidden
+   */
+  public void submit(LiftRideRecord record, long intendedStartNanos) throws InterruptedException {
+    inFlight.acquire();
+    send(buildRequest(record), 0, intendedStartNanos);
+  }
+
+  public void awaitCompletion() throws InterruptedException {
+    // every request and pending retry holds a permit, all of them free means nothing is left
+    inFlight.acquire(maxInFlight);
+    inFlight.release(maxInFlight);
+  }
+
+  private HttpRequest buildRequest(LiftRideRecord record) {
+    String body = "{\"time\":" + record.getTime() + ",\"liftID\":" + record.getLiftID() + "}";
+    return HttpRequest.newBuilder()
+        .uri(URI.create(basePath + "/skiers/" + record.getResortID()
+            + "/seasons/" + record.getSeasonID()
+            + "/days/" + record.getDayID()
+            + "/skiers/" + record.getSkierID()))
+        .timeout(REQUEST_TIMEOUT)
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+  }
+
+  private void send(HttpRequest request, int tryCount, long startTime) {
+    httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+        .whenComplete((response, throwable) -> {
+          boolean success = throwable == null
+              && (response.statusCode() == HTTP_OK || response.statusCode() == HTTP_CREATED);
+          if (success) {
+            finish(true, startTime);
+          } else if (tryCount + 1 < retryCount) {
+            retryScheduler.schedule(() -> send(request, tryCount + 1, startTime),
+                backoffMillis(tryCount), TimeUnit.MILLISECONDS);
+          } else {
+            finish(false, startTime);
+          }
+        });
+  }
+
+  private long backoffMillis(int tryCount) {
+    // full jitter, a random delay up to the exponential bound spreads retries of a burst apart
+    long bound = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(tryCount, 20));
+    return ThreadLocalRandom.current().nextLong(bound + 1);
+  }
+
+  /*
+  one latency sample per request, from its intended start to its final outcome, retries
+  included, so the histogram counts requests and not attempts
+   */
+  private void finish(boolean success, long startTime) {
+    long latency = System.nanoTime() - startTime;
+    latencyHistogram.recordValue(latency);
+    if (liveSampler != null) {
+      liveSampler.recordLatency(latency);
+      liveSampler.recordResult(success);
+    }
+    if (success) {
+      requestSuccessCount.incrementAndGet();
+    } else {
+      requestFailureCount.incrementAndGet();
+    }
+    inFlight.release();
+  }
+
+  public Histogram getLatencyHistogram() {
+    return latencyHistogram;
+  }
+
+  public void close() {
+    retryScheduler.shutdown();
+    httpExecutor.shutdown();
+  }
+}
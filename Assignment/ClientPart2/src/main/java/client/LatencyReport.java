@@ -0,0 +1,71 @@
+package client;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+public class LatencyReport {
+
+  /*
+  latencies are recorded in nanoseconds into one histogram per caller thread, the
+  histograms are merged once the run is over, so memory does not grow with the
+  number of requests and no caller ever waits for another one
+   */
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+  public static Histogram newHistogram() {
+    // auto resizing, so a slow outlier is recorded instead of rejected
+    return new Histogram(SIGNIFICANT_DIGITS);
+  }
+
+  public static Histogram newSharedHistogram() {
+    return new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+  }
+
+  public static Histogram merge(List<ApiCaller> apiCallers) {
+    Histogram merged = newHistogram();
+    // callers may share one histogram, it must only be added once
+    Set<Histogram> histograms = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (ApiCaller apiCaller : apiCallers) {
+      if (histograms.add(apiCaller.getLatencyHistogram())) {
+        merged.add(apiCaller.getLatencyHistogram());
+      }
+    }
+    return merged;
+  }
+
+  public static void printStatistic(Histogram histogram) {
+    System.out.println("Statistic Metrics");
+    if (histogram.getTotalCount() == 0) {
+      System.out.println("No responses recorded");
+      return;
+    }
+    System.out.println("Mean Response Time: " + histogram.getMean() / NANOS_PER_MILLI + " ms");
+    System.out.println("Median Response Time: " + toMillis(histogram.getValueAtPercentile(50)) + " ms");
+    System.out.println("P99 Response Time: " + toMillis(histogram.getValueAtPercentile(99)) + " ms");
+    System.out.println("P99.9 Response Time: " + toMillis(histogram.getValueAtPercentile(99.9)) + " ms");
+    System.out.println("Min Response Time: " + toMillis(histogram.getMinValue()) + " ms");
+    System.out.println("Max Response Time: " + toMillis(histogram.getMaxValue()) + " ms");
+  }
+
+  public static void writePercentileDistribution(Histogram histogram, String localPath) {
+    // the full distribution in milliseconds, in the .hgrm format HdrHistogram tools can plot
+    try (PrintStream printStream = new PrintStream(new FileOutputStream(localPath))) {
+      histogram.outputPercentileDistribution(printStream, NANOS_PER_MILLI);
+    } catch (IOException e) {
+      System.err.println("Failed to write latency distribution to file: " + e.getMessage());
+    }
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / NANOS_PER_MILLI;
+  }
+}
@@ -0,0 +1,149 @@
+package client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+public class LiveSampler {
+
+  /*
+  per second view of a running load test, callers record into a wait-free Recorder and
+  LongAdders, once a second the sampler swaps out the interval histogram, prints
+  throughput, error rate and percentiles and hands one csv line to a writer thread,
+  which appends it to a buffered FileChannel, nothing per request is kept in memory
+
+  csv columns: second,requests,success,failure,errorRate,p50Ms,p90Ms,p99Ms,p999Ms,maxMs
+   */
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final int FLUSH_INTERVAL_SECONDS = 10;
+  private static final String CSV_HEADER = "second,requests,success,failure,errorRate,p50Ms,p90Ms,p99Ms,p999Ms,maxMs\n";
+
+  private final Recorder latencyRecorder = new Recorder(SIGNIFICANT_DIGITS);
+  private final LongAdder successCount = new LongAdder();
+  private final LongAdder failureCount = new LongAdder();
+  private final Path csvPath;
+
+  private ScheduledExecutorService sampler;
+  private ExecutorService writer;
+  // only touched by the writer thread
+  private FileChannel channel;
+  private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+  // only touched by the sampler thread
+  private Histogram intervalHistogram;
+  private long second;
+
+  public LiveSampler(Path csvPath) {
+    this.csvPath = csvPath;
+  }
+
+  public void recordLatency(long latencyNanos) {
+    latencyRecorder.recordValue(latencyNanos);
+  }
+
+  public void recordResult(boolean success) {
+    if (success) {
+      successCount.increment();
+    } else {
+      failureCount.increment();
+    }
+  }
+
+  public void start() throws IOException {
+    channel = FileChannel.open(csvPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    writer = Executors.newSingleThreadExecutor(runnable -> newDaemonThread(runnable, "live-sampler-writer"));
+    sampler = Executors.newSingleThreadScheduledExecutor(runnable -> newDaemonThread(runnable, "live-sampler"));
+    write(CSV_HEADER);
+    sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+  }
+
+  /*
+  takes a last, possibly partial sample and flushes the csv file
+   */
+  public void stop() throws InterruptedException {
+    sampler.shutdown();
+    sampler.awaitTermination(1, TimeUnit.MINUTES);
+    sample();
+    writer.submit(this::closeChannel);
+    writer.shutdown();
+    writer.awaitTermination(1, TimeUnit.MINUTES);
+  }
+
+  private void sample() {
+    intervalHistogram = latencyRecorder.getIntervalHistogram(intervalHistogram);
+    long success = successCount.sumThenReset();
+    long failure = failureCount.sumThenReset();
+    long requests = success + failure;
+    double errorRate = requests == 0 ? 0 : (double) failure / requests;
+    second += 1;
+
+    System.out.printf("[%4ds] %7d req/s  errors %6.2f%%  p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms%n",
+        second, requests, errorRate * 100, percentile(50), percentile(99), toMillis(intervalHistogram.getMaxValue()));
+    write(second + "," + requests + "," + success + "," + failure + "," + errorRate + ","
+        + percentile(50) + "," + percentile(90) + "," + percentile(99) + "," + percentile(99.9) + ","
+        + toMillis(intervalHistogram.getMaxValue()) + "\n");
+    if (second % FLUSH_INTERVAL_SECONDS == 0) {
+      writer.submit(this::flush);
+    }
+  }
+
+  private double percentile(double percentile) {
+    return toMillis(intervalHistogram.getValueAtPercentile(percentile));
+  }
+
+  private void write(String line) {
+    byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+    // a slow disk only ever delays the writer thread, never the sampler or the callers
+    writer.submit(() -> {
+      if (writeBuffer.remaining() < bytes.length) {
+        flush();
+      }
+      writeBuffer.put(bytes);
+    });
+  }
+
+  private void flush() {
+    writeBuffer.flip();
+    try {
+      while (writeBuffer.hasRemaining()) {
+        channel.write(writeBuffer);
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to write latency time series to file: " + e.getMessage());
+    } finally {
+      writeBuffer.clear();
+    }
+  }
+
+  private void closeChannel() {
+    flush();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      System.err.println("Failed to write latency time series to file: " + e.getMessage());
+    }
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / NANOS_PER_MILLI;
+  }
+
+  private static Thread newDaemonThread(Runnable runnable, String name) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -1,58 +1,91 @@
 package client;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
-import model.LiftRideRecord;
-import model.ResponseData;
+import org.HdrHistogram.Histogram;
 
 public class MultiThreadCall {
 
+  /*
+  usage: MultiThreadCall                          32 + 1200 platform threads in two phases
+         MultiThreadCall virtual <concurrency>    one virtual thread per in-flight request
+         MultiThreadCall async <maxInFlight> [http2]
+                                                  non-blocking client, bounded in-flight window
+         MultiThreadCall open <maxInFlight> <schedule>
+                                                  open loop at the rates of a LoadSchedule, e.g.
+                                                  open 2000 ramp 500 5000 120
+
+  every mode prints a line per second and writes the same series to responseTimeSeries.csv
+   */
+
+  private static final int MIN_VIRTUAL_CONCURRENCY = 10;
+  private static final int MAX_VIRTUAL_CONCURRENCY = 100000;
+  private static final int ASYNC_CLIENT_THREADS = 4;
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
   public static void main(String[] args) throws InterruptedException {
 
 //    final String ipAddress = "localhost:8080";
-    final String ipAddress = "34.220.164.24:8080";
+    // -Dserver=localhost:8080 for a local server such as the PipelineBenchmark in Benchmarks
+    final String ipAddress = System.getProperty("server", "34.220.164.24:8080");
+    final int requestCount = 200000;
+
+    if (args.length > 0 && args[0].equals("virtual")) {
+      int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+      runVirtualThreads(ipAddress, requestCount, concurrency);
+    } else if (args.length > 0 && args[0].equals("async")) {
+      int maxInFlight = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+      boolean http2 = args.length > 2 && args[2].equals("http2");
+      runAsyncClient(ipAddress, requestCount, maxInFlight, http2);
+    } else if (args.length > 2 && args[0].equals("open")) {
+      runOpenLoop(ipAddress, Integer.parseInt(args[1]), LoadSchedule.parse(args, 2));
+    } else {
+      runPlatformThreads(ipAddress, requestCount);
+    }
+  }
+
+  private static void runPlatformThreads(String ipAddress, int requestCount) throws InterruptedException {
     final int numberOfThreadForProcess1 = 32;
     final int numberOfThreadForProcess2 = 1200;
     ExecutorService executor = Executors.newFixedThreadPool(numberOfThreadForProcess1 + numberOfThreadForProcess2);
-    BlockingQueue<LiftRideRecord> liftRideRecordBlockingQueue = new LinkedBlockingQueue<>();
-    final int requestCount = 200000;
     final int requestCountPerThreadInProcess1 = 1000;
     final int requestCountPerThreadInProcess2 =( requestCount - (requestCountPerThreadInProcess1 * numberOfThreadForProcess1) ) / numberOfThreadForProcess2;
     AtomicInteger requestSuccessCount = new AtomicInteger(0);
     AtomicInteger requestFailureCount = new AtomicInteger(0);
-    List<ResponseData> responseDataList = Collections.synchronizedList(new ArrayList<>());
-
-
-
+    List<ApiCaller> apiCallers = new ArrayList<>();
+    // generated before the clock starts, every caller then walks its own slice
+    RideSupply rideSupply = RideSupply.generate(requestCount);
+    int nextRide = 0;
 
+    LiveSampler liveSampler = startLiveSampler();
     long threadStartTime = System.currentTimeMillis();
 
-    CountDownLatch producerLatch = new CountDownLatch(1);
-    LiftRecordProducer liftRecordProducer = new LiftRecordProducer(liftRideRecordBlockingQueue, requestCount, producerLatch);
-    Thread producerThread = new Thread(liftRecordProducer);
-    producerThread.start();
-
-
     CountDownLatch consumerLatch = new CountDownLatch(1);
     for (int i = 0; i < numberOfThreadForProcess1; i++) {
-      executor.submit( new ApiCaller(ipAddress, liftRideRecordBlockingQueue, requestCountPerThreadInProcess1, requestSuccessCount, requestFailureCount, consumerLatch,5, responseDataList));
+      RideSupply.Slice rides = rideSupply.slice(nextRide, requestCountPerThreadInProcess1);
+      nextRide += requestCountPerThreadInProcess1;
+      ApiCaller apiCaller = new ApiCaller(ipAddress, rides, requestSuccessCount, requestFailureCount, consumerLatch,5, LatencyReport.newHistogram(), liveSampler);
+      apiCallers.add(apiCaller);
+      executor.submit(apiCaller);
     }
     consumerLatch.await();
 
     CountDownLatch consumerLatch2 = new CountDownLatch(1);
     for (int i = 0; i < numberOfThreadForProcess2; i++) {
-      executor.submit( new ApiCaller(ipAddress, liftRideRecordBlockingQueue, requestCountPerThreadInProcess2, requestSuccessCount, requestFailureCount, consumerLatch2,5, responseDataList));
+      RideSupply.Slice rides = rideSupply.slice(nextRide, requestCountPerThreadInProcess2);
+      nextRide += requestCountPerThreadInProcess2;
+      ApiCaller apiCaller = new ApiCaller(ipAddress, rides, requestSuccessCount, requestFailureCount, consumerLatch2,5, LatencyReport.newHistogram(), liveSampler);
+      apiCallers.add(apiCaller);
+      executor.submit(apiCaller);
     }
     consumerLatch2.await();
 
@@ -61,56 +94,155 @@ public class MultiThreadCall {
 
     executor.shutdown();
     executor.awaitTermination(1, TimeUnit.HOURS);
+    liveSampler.stop();
 
-    String localPath = "responseData.csv";
-    writeRawData(responseDataList, localPath);
+    // every caller has terminated, so its histogram is complete and visible here
+    printReport("Number of thread in process 2: "+ numberOfThreadForProcess2, LatencyReport.merge(apiCallers),
+        requestSuccessCount, requestFailureCount, latency);
+  }
 
-    calculateStatistic(responseDataList);
+  private static void runVirtualThreads(String ipAddress, int requestCount, int concurrency) throws InterruptedException {
+    if (concurrency < MIN_VIRTUAL_CONCURRENCY || concurrency > MAX_VIRTUAL_CONCURRENCY) {
+      throw new IllegalArgumentException("concurrency must be between " + MIN_VIRTUAL_CONCURRENCY
+          + " and " + MAX_VIRTUAL_CONCURRENCY + ": " + concurrency);
+    }
+    ExecutorService executor = newVirtualThreadPerTaskExecutor();
+    AtomicInteger requestSuccessCount = new AtomicInteger(0);
+    AtomicInteger requestFailureCount = new AtomicInteger(0);
+    List<ApiCaller> apiCallers = new ArrayList<>();
+    // a histogram per caller would cost more memory than the run itself at this concurrency
+    Histogram latencyHistogram = LatencyReport.newSharedHistogram();
+    RideSupply rideSupply = RideSupply.generate(requestCount);
+    int nextRide = 0;
 
-    System.out.println("Summary:");
-    System.out.println("Number of thread in process 2: "+ numberOfThreadForProcess2);
-    System.out.println("Number of successful requests: "+ requestSuccessCount.get());
-    System.out.println("Number of fail requests: "+ requestFailureCount.get());
-    System.out.println("Total run time: " + latency);
-    System.out.println("Response Time: "+((double)(latency)/(requestSuccessCount.get()+requestFailureCount.get())) + " ms/request");
-    System.out.println("RPS: " +  (requestSuccessCount.get() + requestFailureCount.get() )  * 1000L / latency + " requests/second");
+    LiveSampler liveSampler = startLiveSampler();
+    long threadStartTime = System.currentTimeMillis();
+
+    // every caller is one in-flight request at a time, the remainder goes to the first callers
+    CountDownLatch consumerLatch = new CountDownLatch(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      int requestCountPerCaller = requestCount / concurrency + (i < requestCount % concurrency ? 1 : 0);
+      RideSupply.Slice rides = rideSupply.slice(nextRide, requestCountPerCaller);
+      nextRide += requestCountPerCaller;
+      ApiCaller apiCaller = new ApiCaller(ipAddress, rides, requestSuccessCount, requestFailureCount, consumerLatch, 5, latencyHistogram, liveSampler);
+      apiCallers.add(apiCaller);
+      executor.submit(apiCaller);
+    }
+    consumerLatch.await();
+
+    long threadEndTime = System.currentTimeMillis();
+    long latency = threadEndTime-threadStartTime;
+
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.HOURS);
+    liveSampler.stop();
+
+    printReport("Number of virtual threads: " + concurrency, LatencyReport.merge(apiCallers),
+        requestSuccessCount, requestFailureCount, latency);
   }
 
+  private static void runAsyncClient(String ipAddress, int requestCount, int maxInFlight, boolean http2) throws InterruptedException {
+    AtomicInteger requestSuccessCount = new AtomicInteger(0);
+    AtomicInteger requestFailureCount = new AtomicInteger(0);
+    RideSupply rideSupply = RideSupply.generate(requestCount);
+    LiveSampler liveSampler = startLiveSampler();
+    AsyncApiCaller asyncApiCaller = new AsyncApiCaller(ipAddress, maxInFlight, ASYNC_CLIENT_THREADS,
+        http2, 5, requestSuccessCount, requestFailureCount, liveSampler);
 
+    long threadStartTime = System.currentTimeMillis();
 
-  private static void writeRawData(List<ResponseData> responseDataList, String localPath) {
+    // returns once every request has either succeeded or run out of retries
+    asyncApiCaller.run(rideSupply.slice(0, requestCount));
 
-    try (BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(localPath, true))) {
-      for (ResponseData record : responseDataList) {
-        bufferedWriter.write(record.toString());
-        bufferedWriter.newLine(); // Ensure each record is on a new line.
+    long threadEndTime = System.currentTimeMillis();
+    long latency = threadEndTime-threadStartTime;
+
+    asyncApiCaller.close();
+    liveSampler.stop();
+
+    printReport("Max in-flight requests: " + maxInFlight + (http2 ? " (HTTP/2)" : " (HTTP/1.1)"),
+        asyncApiCaller.getLatencyHistogram(), requestSuccessCount, requestFailureCount, latency);
+  }
+
+  private static void runOpenLoop(String ipAddress, int maxInFlight, LoadSchedule schedule) throws InterruptedException {
+    final int requestCount = schedule.countRequests();
+    AtomicInteger requestSuccessCount = new AtomicInteger(0);
+    AtomicInteger requestFailureCount = new AtomicInteger(0);
+    LiveSampler liveSampler = startLiveSampler();
+    AsyncApiCaller asyncApiCaller = new AsyncApiCaller(ipAddress, maxInFlight, ASYNC_CLIENT_THREADS,
+        false, 5, requestSuccessCount, requestFailureCount, liveSampler);
+    // generation is not part of the schedule, every record exists before the first one is due
+    RideSupply.Slice rides = RideSupply.generate(requestCount).slice(0, requestCount);
+
+    long runStartTime = System.nanoTime();
+    long maxDispatchLag = 0;
+    for (long offset = 0; offset < schedule.getDurationNanos(); offset = schedule.nextSendOffsetNanos(offset)) {
+      long intendedStartTime = runStartTime + offset;
+      long waitTime;
+      while ((waitTime = intendedStartTime - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(waitTime);
       }
-    } catch (IOException e) {
-      System.err.println("Failed to write records to file: " + e.getMessage());
+      // a full window delays the send, but the latency still counts from the intended start
+      asyncApiCaller.submit(rides.next(), intendedStartTime);
+      maxDispatchLag = Math.max(maxDispatchLag, System.nanoTime() - intendedStartTime);
     }
+    long sendEndTime = System.nanoTime();
+    asyncApiCaller.awaitCompletion();
+    long runEndTime = System.nanoTime();
+
+    asyncApiCaller.close();
+    liveSampler.stop();
+
+    Histogram latencyHistogram = asyncApiCaller.getLatencyHistogram();
+    LatencyReport.writePercentileDistribution(latencyHistogram, "openLoopResponseData.hgrm");
+    LatencyReport.printStatistic(latencyHistogram);
+
+    int completed = requestSuccessCount.get() + requestFailureCount.get();
+    double scheduleSeconds = schedule.getDurationNanos() / (double) NANOS_PER_SECOND;
+    System.out.println("Summary:");
+    System.out.println("Schedule: " + schedule + ", max in-flight requests: " + maxInFlight);
+    System.out.println("Number of successful requests: " + requestSuccessCount.get());
+    System.out.println("Number of fail requests: " + requestFailureCount.get());
+    System.out.println("Target RPS: " + requestCount / scheduleSeconds + " requests/second");
+    System.out.println("Offered RPS: " + requestCount * (double) NANOS_PER_SECOND / (sendEndTime - runStartTime) + " requests/second");
+    System.out.println("Achieved RPS: " + completed * (double) NANOS_PER_SECOND / (runEndTime - runStartTime) + " requests/second");
+    System.out.println("Max send delay behind schedule: " + maxDispatchLag / 1_000_000.0 + " ms");
   }
 
-  private static void calculateStatistic(List<ResponseData> responseDataList) {
+  private static LiveSampler startLiveSampler() {
+    LiveSampler liveSampler = new LiveSampler(Paths.get("responseTimeSeries.csv"));
+    try {
+      liveSampler.start();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to open latency time series file", e);
+    }
+    return liveSampler;
+  }
 
-    List<Long> latencies = new ArrayList<>();
-    double total = 0;
-    for (ResponseData responseData: responseDataList) {
-      latencies.add(responseData.getLatency());
-      total += responseData.getLatency();
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    // looked up at runtime so the module still builds for Java 11, the mode itself needs Java 21
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Virtual thread mode needs Java 21 or newer, running on "
+          + System.getProperty("java.version"), e);
     }
-    Collections.sort(latencies);
-
-    double mean = total/ latencies.size();
-    double median = latencies.get(latencies.size() / 2);
-    long p99 = latencies.get((int) (latencies.size() * 0.99));
-    long min = latencies.get(0);
-    long max = latencies.get(latencies.size() - 1);
-    System.out.println("Statistic Metrics");
-    System.out.println("Mean Response Time: " + mean + " ms");
-    System.out.println("Median Response Time: " + median + " ms");
-    System.out.println("P99 Response Time: " + p99 + " ms");
-    System.out.println("Min Response Time: " + min + " ms");
-    System.out.println("Max Response Time: " + max + " ms");
+  }
+
+  private static void printReport(String threadSummary, Histogram latencyHistogram,
+      AtomicInteger requestSuccessCount, AtomicInteger requestFailureCount, long latency) {
+    String localPath = "responseData.hgrm";
+    LatencyReport.writePercentileDistribution(latencyHistogram, localPath);
+
+    LatencyReport.printStatistic(latencyHistogram);
+
+    System.out.println("Summary:");
+    System.out.println(threadSummary);
+    System.out.println("Number of successful requests: "+ requestSuccessCount.get());
+    System.out.println("Number of fail requests: "+ requestFailureCount.get());
+    System.out.println("Total run time: " + latency);
+    System.out.println("Response Time: "+((double)(latency)/(requestSuccessCount.get()+requestFailureCount.get())) + " ms/request");
+    System.out.println("RPS: " +  (requestSuccessCount.get() + requestFailureCount.get() )  * 1000L / latency + " requests/second");
   }
 
 }
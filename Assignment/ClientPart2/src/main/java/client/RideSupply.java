@@ -0,0 +1,105 @@
+package client;
+
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+import model.LiftRideRecord;
+
+public class RideSupply {
+
+  /*
+  every lift ride of a run, generated into primitive arrays before the timed phase
+
+  generation runs in parallel, one SplittableRandom per chunk, and callers never share a
+  queue, each one walks its own slice of the arrays, so neither generation nor handoff
+  shows up in the measured throughput
+   */
+
+  private static final String DAY_ID = "1";
+  private static final String SEASON_ID = "2024";
+  private static final int TIME_MAX = 360;
+  private static final int LIFT_ID_MAX = 40;
+  private static final int RESORT_ID_MAX = 10;
+  private static final int SKIER_ID_MAX = 100000;
+  private static final int CHUNK_SIZE = 16384;
+
+  private final int[] skierIDs;
+  private final int[] resortIDs;
+  private final int[] liftIDs;
+  private final int[] times;
+
+  private RideSupply(int count) {
+    skierIDs = new int[count];
+    resortIDs = new int[count];
+    liftIDs = new int[count];
+    times = new int[count];
+  }
+
+  public static RideSupply generate(int count) {
+    return generate(count, new SplittableRandom());
+  }
+
+  public static RideSupply generate(int count, SplittableRandom seed) {
+    RideSupply supply = new RideSupply(count);
+    int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    // split up front on one thread, so the same seed always gives the same rides
+    SplittableRandom[] randoms = new SplittableRandom[chunks];
+    for (int i = 0; i < chunks; i++) {
+      randoms[i] = seed.split();
+    }
+    IntStream.range(0, chunks).parallel().forEach(chunk -> {
+      SplittableRandom random = randoms[chunk];
+      int end = Math.min(count, (chunk + 1) * CHUNK_SIZE);
+      for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+        supply.skierIDs[i] = random.nextInt(SKIER_ID_MAX) + 1;
+        supply.resortIDs[i] = random.nextInt(RESORT_ID_MAX) + 1;
+        supply.liftIDs[i] = random.nextInt(LIFT_ID_MAX) + 1;
+        supply.times[i] = random.nextInt(TIME_MAX) + 1;
+      }
+    });
+    return supply;
+  }
+
+  public int size() {
+    return skierIDs.length;
+  }
+
+  public LiftRideRecord get(int index) {
+    return new LiftRideRecord(skierIDs[index], resortIDs[index], liftIDs[index], SEASON_ID, DAY_ID, times[index]);
+  }
+
+  public Slice slice(int from, int count) {
+    if (from < 0 || count < 0 || from + count > size()) {
+      throw new IndexOutOfBoundsException("slice [" + from + ", " + (from + count) + ") of " + size() + " rides");
+    }
+    return new Slice(from, from + count);
+  }
+
+  /*
+  a contiguous range of the supply owned by one caller, not thread safe
+   */
+  public class Slice {
+    private final int end;
+    private int next;
+
+    private Slice(int from, int end) {
+      this.next = from;
+      this.end = end;
+    }
+
+    public int remaining() {
+      return end - next;
+    }
+
+    public boolean hasNext() {
+      return next < end;
+    }
+
+    public LiftRideRecord next() {
+      if (next >= end) {
+        throw new NoSuchElementException();
+      }
+      return get(next++);
+    }
+  }
+}
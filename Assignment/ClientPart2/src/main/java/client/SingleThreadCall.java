@@ -1,39 +1,28 @@
 package client;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import model.LiftRideRecord;
-import model.ResponseData;
 
 public class SingleThreadCall {
 
   public static void main(String[] args) throws InterruptedException {
 
 //        final String ipAddress = "localhost:8080";
-    final String ipAddress = "34.220.164.24:8080";
-    BlockingQueue<LiftRideRecord> liftRideRecordBlockingQueue = new LinkedBlockingQueue<>();
+    final String ipAddress = System.getProperty("server", "34.220.164.24:8080");
     final Integer requestCount = 100;
     AtomicInteger requestSuccessCount = new AtomicInteger(0);
     AtomicInteger requestFailureCount = new AtomicInteger(0);
-    List<ResponseData> responseDataList = Collections.synchronizedList(new ArrayList<>());
 
-    long threadStartTime = System.currentTimeMillis();
+    RideSupply rideSupply = RideSupply.generate(requestCount);
 
-    CountDownLatch producerLatch = new CountDownLatch(1);
-    LiftRecordProducer liftRecordProducer = new LiftRecordProducer(liftRideRecordBlockingQueue, requestCount, producerLatch);
-    Thread producerThread = new Thread(liftRecordProducer);
-    producerThread.start();
+    long threadStartTime = System.currentTimeMillis();
 
     CountDownLatch consumerLatch = new CountDownLatch(1);
-    ApiCaller singleThreadCall = new ApiCaller(ipAddress, liftRideRecordBlockingQueue, requestCount, requestSuccessCount, requestFailureCount, consumerLatch,5, responseDataList);
+    ApiCaller singleThreadCall = new ApiCaller(ipAddress, rideSupply.slice(0, requestCount), requestSuccessCount, requestFailureCount, consumerLatch,5);
     Thread singleThread = new Thread(singleThreadCall);
     singleThread.start();
     consumerLatch.await();
+    singleThread.join();
 
     long threadEndTime = System.currentTimeMillis();
     long latency = threadEndTime-threadStartTime;
@@ -45,6 +34,7 @@ public class SingleThreadCall {
     System.out.println("Total run time: " + latency);
     System.out.println("Response Time: "+((double)(latency)/(requestSuccessCount.get()+requestFailureCount.get())) + " ms/request");
     System.out.println("RPS:     " +  (requestSuccessCount.get() + requestFailureCount.get() )  * 1000L / latency + " requests/second");
+    LatencyReport.printStatistic(singleThreadCall.getLatencyHistogram());
   }
 
 }
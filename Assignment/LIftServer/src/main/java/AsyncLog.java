@@ -0,0 +1,336 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+public final class AsyncLog {
+
+  /*
+  a logger whose callers never touch the console, a log call only puts the event and its
+  fields on a bounded ring and returns, one daemon thread takes the events off the ring,
+  formats each as one key=value line and writes them to stdout a drained batch at a time,
+  with the ring empty it parks until a log call unparks it or the next counter report
+  is due
+
+    ERROR, WARN   failures
+    INFO          startup and the periodic counter report
+    DEBUG         one line per message, only with log.level=DEBUG, and then only for the
+                  one in log.sampleRate messages for which sampleDebug() is true
+
+  a hot path counts instead of logging, it adds to a counter() and the writer thread
+  reports every counter that moved once per log.reportIntervalSeconds
+
+  when the ring is full the event is dropped, a caller never waits for the console,
+  the dropped events are reported with the counters
+
+  set with the system properties log.level, log.sampleRate, log.ringCapacity and
+  log.reportIntervalSeconds, a servlet may change the level and sample rate with configure,
+  a level which is not one of the four leaves the level as it was, INFO at startup
+
+  nothing is registered with the JVM, whoever owns the process calls stop() on the way
+  out, a webapp from AsyncLogListener once the context is destroyed so the writer
+  thread does not outlive it and keep its classloader, a main from its shutdown hook,
+  stop() cannot be undone, events logged after it are dropped
+
+  copy of the class in Server, keep the three in step
+   */
+
+  public enum Level {
+    ERROR, WARN, INFO, DEBUG
+  }
+
+  private static final long FLUSH_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  // written out before the ring is empty once a busy stretch has formatted this much
+  private static final int MAX_PENDING_CHARS = 64 * 1024;
+
+  private static volatile Level level = parseLevel(System.getProperty("log.level"), Level.INFO);
+  private static volatile int sampleRate = Math.max(1, Integer.getInteger("log.sampleRate", 1000));
+  private static final long reportIntervalNanos =
+      TimeUnit.SECONDS.toNanos(Math.max(1, Integer.getInteger("log.reportIntervalSeconds", 10)));
+
+  private static final int capacity =
+      Integer.highestOneBit(Math.max(2, Integer.getInteger("log.ringCapacity", 8192)));
+  private static final int mask = capacity - 1;
+  // a slot is null until its event is put, and null again once the writer took it
+  private static final AtomicReferenceArray<Event> events = new AtomicReferenceArray<>(capacity);
+  private static final AtomicLong claimSequence = new AtomicLong(-1);
+  // only written by the writer thread
+  private static final AtomicLong consumedSequence = new AtomicLong(-1);
+  // the last event which reached stdout
+  private static volatile long writtenSequence = -1;
+
+  private static final LongAdder dropped = new LongAdder();
+  private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+  private static final Thread writer = new Thread(AsyncLog::writeLoop, "async-log-writer");
+  // set by the writer before it parks on an empty ring, a log call then unparks it
+  private static volatile boolean writerParked;
+  private static volatile boolean stopped;
+
+  static {
+    writer.setDaemon(true);
+    writer.start();
+    String propertyLevel = System.getProperty("log.level");
+    if (propertyLevel != null && !propertyLevel.trim().isEmpty()
+        && parseLevel(propertyLevel, null) == null) {
+      warn("unknownLogLevel", "level", propertyLevel, "keeping", level);
+    }
+  }
+
+  private AsyncLog() {
+  }
+
+  /*
+  from servlet init-params, null or empty leaves a setting as it is
+   */
+  public static void configure(String newLevel, String newSampleRate) {
+    if (newLevel != null && !newLevel.trim().isEmpty() && parseLevel(newLevel, null) == null) {
+      warn("unknownLogLevel", "level", newLevel, "keeping", level);
+    }
+    level = parseLevel(newLevel, level);
+    if (newSampleRate != null && !newSampleRate.trim().isEmpty()) {
+      sampleRate = Math.max(1, Integer.parseInt(newSampleRate.trim()));
+    }
+  }
+
+  public static boolean isEnabled(Level eventLevel) {
+    return eventLevel.compareTo(level) <= 0;
+  }
+
+  /*
+  true for about one in sampleRate calls when DEBUG is on, guards a per-message debug
+  call so the fields are not even boxed for the messages which are not logged
+   */
+  public static boolean sampleDebug() {
+    return level == Level.DEBUG
+        && (sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0);
+  }
+
+  /*
+  the counter of that name, callers keep it in a static final field
+   */
+  public static LongAdder counter(String name) {
+    return counters.computeIfAbsent(name, ignored -> new LongAdder());
+  }
+
+  public static void debug(String event, Object... fields) {
+    log(Level.DEBUG, event, null, fields);
+  }
+
+  public static void info(String event, Object... fields) {
+    log(Level.INFO, event, null, fields);
+  }
+
+  public static void warn(String event, Object... fields) {
+    log(Level.WARN, event, null, fields);
+  }
+
+  public static void error(String event, Throwable error, Object... fields) {
+    log(Level.ERROR, event, error, fields);
+  }
+
+  private static void log(Level eventLevel, String event, Throwable error, Object[] fields) {
+    if (!isEnabled(eventLevel)) {
+      return;
+    }
+    if (stopped) {
+      dropped.increment();
+      return;
+    }
+    long sequence;
+    do {
+      sequence = claimSequence.get() + 1;
+      if (sequence - capacity > consumedSequence.get()) {
+        dropped.increment();
+        return;
+      }
+    } while (!claimSequence.compareAndSet(sequence - 1, sequence));
+    // a volatile store, so it cannot pass the read of writerParked below
+    events.set((int) sequence & mask, new Event(eventLevel, System.currentTimeMillis(),
+        Thread.currentThread().getName(), event, error, fields));
+    if (writerParked) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /*
+  waits until everything logged so far is written, for shutdown
+   */
+  public static void flush(long timeoutMillis) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    long target = claimSequence.get();
+    while (writtenSequence < target && System.nanoTime() < deadline) {
+      LockSupport.parkNanos(FLUSH_PARK_NANOS);
+    }
+  }
+
+  /*
+  writes out what was logged so far and ends the writer thread, waiting for it at most
+  timeoutMillis
+   */
+  public static void stop(long timeoutMillis) {
+    stopped = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join(timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void writeLoop() {
+    StringBuilder lines = new StringBuilder(4096);
+    Map<String, Long> reported = new HashMap<>();
+    long next = 0;
+    long lastReport = System.nanoTime();
+    while (true) {
+      int slot = (int) next & mask;
+      Event event = events.get(slot);
+      if (event != null) {
+        events.lazySet(slot, null);
+        consumedSequence.lazySet(next);
+        next += 1;
+        format(lines, event);
+        if (lines.length() < MAX_PENDING_CHARS) {
+          continue;
+        }
+      }
+      long now = System.nanoTime();
+      if (now - lastReport >= reportIntervalNanos) {
+        reportCounters(lines, reported, now - lastReport);
+        lastReport = now;
+      }
+      if (lines.length() > 0) {
+        // the only thread which takes the console lock, once per drained batch
+        System.out.print(lines);
+        System.out.flush();
+        lines.setLength(0);
+        writtenSequence = next - 1;
+      }
+      if (event == null) {
+        if (stopped && next > claimSequence.get()) {
+          // a last counter report, then the thread ends
+          reportCounters(lines, reported, System.nanoTime() - lastReport);
+          System.out.print(lines);
+          System.out.flush();
+          return;
+        }
+        writerParked = true;
+        // a log call which did not see writerParked has put its event by now
+        if (events.get((int) next & mask) == null && !stopped) {
+          LockSupport.parkNanos(reportIntervalNanos - (System.nanoTime() - lastReport));
+        }
+        writerParked = false;
+      }
+    }
+  }
+
+  private static void reportCounters(StringBuilder lines, Map<String, Long> reported,
+      long intervalNanos) {
+    if (!isEnabled(Level.INFO)) {
+      return;
+    }
+    StringBuilder fields = new StringBuilder();
+    double seconds = intervalNanos / (double) TimeUnit.SECONDS.toNanos(1);
+    for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+      long total = counter.getValue().sum();
+      long previous = reported.getOrDefault(counter.getKey(), 0L);
+      if (total == previous) {
+        continue;
+      }
+      reported.put(counter.getKey(), total);
+      fields.append(' ').append(counter.getKey()).append('=').append(total)
+          .append(' ').append(counter.getKey()).append(".rate=")
+          .append(String.format(Locale.ROOT, "%.1f", (total - previous) / seconds));
+    }
+    long droppedTotal = dropped.sum();
+    if (droppedTotal != reported.getOrDefault("log.dropped", 0L)) {
+      reported.put("log.dropped", droppedTotal);
+      fields.append(" log.dropped=").append(droppedTotal);
+    }
+    if (fields.length() > 0) {
+      lines.append(Instant.ofEpochMilli(System.currentTimeMillis())).append(" level=INFO thread=")
+          .append(Thread.currentThread().getName()).append(" event=counters")
+          .append(fields).append('\n');
+    }
+  }
+
+  private static void format(StringBuilder lines, Event event) {
+    lines.append(Instant.ofEpochMilli(event.millis))
+        .append(" level=").append(event.level)
+        .append(" thread=").append(event.threadName)
+        .append(" event=").append(event.event);
+    Object[] fields = event.fields;
+    for (int i = 0; i + 1 < fields.length; i += 2) {
+      lines.append(' ').append(fields[i]).append('=');
+      appendValue(lines, fields[i + 1]);
+    }
+    if (event.error != null) {
+      lines.append(" error=");
+      appendValue(lines, event.error);
+      lines.append('\n');
+      StringWriter stackTrace = new StringWriter();
+      event.error.printStackTrace(new PrintWriter(stackTrace));
+      lines.append(stackTrace);
+    } else {
+      lines.append('\n');
+    }
+  }
+
+  private static void appendValue(StringBuilder lines, Object value) {
+    String text = String.valueOf(value);
+    if (text.indexOf(' ') < 0 && text.indexOf('"') < 0 && !text.isEmpty()) {
+      lines.append(text);
+      return;
+    }
+    lines.append('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\') {
+        lines.append('\\');
+      }
+      lines.append(c);
+    }
+    lines.append('"');
+  }
+
+  private static Level parseLevel(String value, Level defaultLevel) {
+    if (value == null || value.trim().isEmpty()) {
+      return defaultLevel;
+    }
+    try {
+      return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      return defaultLevel;
+    }
+  }
+
+  private static final class Event {
+    private final Level level;
+    private final long millis;
+    private final String threadName;
+    private final String event;
+    private final Throwable error;
+    private final Object[] fields;
+
+    private Event(Level level, long millis, String threadName, String event, Throwable error,
+        Object[] fields) {
+      this.level = level;
+      this.millis = millis;
+      this.threadName = threadName;
+      this.event = event;
+      this.error = error;
+      this.fields = fields;
+    }
+  }
+}
@@ -0,0 +1,125 @@
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class RabbitMQChannelPool {
+
+  /*
+  a bounded pool of channels which all share one long-lived connection,
+  the servlet creates it once in init() and closes it in destroy()
+
+  a closed channel which cannot be replaced when it is returned leaves its slot empty,
+  borrowChannel refills empty slots once the broker takes new channels again, so a
+  broker blip never shrinks the pool for good
+   */
+
+  private final Connection connection;
+  private final BlockingQueue<Channel> channels;
+  private final String queueName;
+  private final long borrowTimeoutMillis;
+  // slots whose channel was closed and could not be replaced yet
+  private final AtomicInteger missing = new AtomicInteger();
+
+  public RabbitMQChannelPool(ConnectionFactory factory, String queueName, int poolSize,
+      long borrowTimeoutMillis) throws IOException, TimeoutException {
+    if (poolSize <= 0) {
+      throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+    }
+    this.queueName = queueName;
+    this.borrowTimeoutMillis = borrowTimeoutMillis;
+    this.channels = new ArrayBlockingQueue<>(poolSize);
+    this.connection = factory.newConnection();
+
+    try {
+      for (int i = 0; i < poolSize; i++) {
+        channels.offer(createChannel());
+      }
+    } catch (IOException e) {
+      connection.abort();
+      throw e;
+    }
+  }
+
+  private Channel createChannel() throws IOException {
+    Channel channel = connection.createChannel();
+    // the queue only has to be declared once per channel, not once per message
+    channel.queueDeclare(queueName, false, false, false, null);
+    return channel;
+  }
+
+  public Channel borrowChannel() throws InterruptedException {
+    // fast path never parks the caller, otherwise wait at most borrowTimeoutMillis
+    Channel channel = channels.poll();
+    if (channel == null) {
+      channel = refill();
+    }
+    if (channel == null) {
+      channel = channels.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    return channel;
+  }
+
+  /*
+  a new channel for an empty slot, null when there is none or the broker still refuses
+   */
+  private Channel refill() {
+    int empty;
+    do {
+      empty = missing.get();
+      if (empty == 0) {
+        return null;
+      }
+    } while (!missing.compareAndSet(empty, empty - 1));
+    try {
+      return createChannel();
+    } catch (IOException | RuntimeException e) {
+      missing.incrementAndGet();
+      return null;
+    }
+  }
+
+  public void returnChannel(Channel channel) {
+    if (channel == null) {
+      return;
+    }
+    if (!channel.isOpen()) {
+      // a channel is closed by the broker after a channel level error, replace it
+      try {
+        channel = createChannel();
+      } catch (IOException | RuntimeException e) {
+        // borrowChannel tries again later
+        missing.incrementAndGet();
+        return;
+      }
+    }
+    // the queue is bounded by the pool size, so offer never has to wait
+    channels.offer(channel);
+  }
+
+  public String getQueueName() {
+    return queueName;
+  }
+
+  public void close() {
+    Channel channel;
+    while ((channel = channels.poll()) != null) {
+      try {
+        channel.close();
+      } catch (IOException | TimeoutException e) {
+        // the connection below is closed anyway
+      }
+    }
+    try {
+      connection.close();
+    } catch (IOException e) {
+      connection.abort();
+    }
+  }
+}
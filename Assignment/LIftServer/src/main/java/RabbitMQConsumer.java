@@ -3,12 +3,17 @@ import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.DeliverCallback;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import model.LiftRideRecord;
+import model.LiftRideRecordCodec;
 
 
 public class RabbitMQConsumer {
 
 
     private final static String QUEUE_NAME = SkierServlet.rabbitMQName;
+    private static final LongAdder RIDES_RECEIVED = AsyncLog.counter("rides.received");
 
     public static void main(String[] argv) throws Exception {
 
@@ -18,12 +23,16 @@ public class RabbitMQConsumer {
       Channel channel = connection.createChannel();
 
       channel.queueDeclare(QUEUE_NAME, false, false, false, null);
-      System.out.println(" [*] Waiting for messages. To exit press CTRL+C");
+      AsyncLog.info("waitingForMessages", "queue", QUEUE_NAME);
 
       DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-        String message = new String(delivery.getBody(), "UTF-8");
-        System.out.println("Received '" + message + "'");
+        RIDES_RECEIVED.increment();
+        if (AsyncLog.sampleDebug()) {
+          LiftRideRecord record = LiftRideRecordCodec.decode(ByteBuffer.wrap(delivery.getBody()));
+          AsyncLog.debug("rideReceived", "record", record);
+        }
       };
       channel.basicConsume(QUEUE_NAME, true, deliverCallback, consumerTag -> { });
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> AsyncLog.stop(1000)));
     }
 }
@@ -1,34 +1,79 @@
 import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.annotation.WebServlet;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
 import model.LiftRideRecord;
+import model.LiftRideRecordCodec;
 import model.Message;
 import com.google.gson.Gson;
 
 @WebServlet(name = "SkierServlet", value = "/SkierServlet")
 public class SkierServlet extends HttpServlet {
 
-  private Gson gson = new Gson();
+  // response bodies are built once, a request only copies the bytes to the output stream
+  private static final byte[] MISSING_PARAMETERS = "missing parameters".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] INVALID_URL =
+      responseBody(HttpServletResponse.SC_BAD_REQUEST, "The request url is invalid");
+  private static final byte[] INVALID_BODY =
+      responseBody(HttpServletResponse.SC_BAD_REQUEST, "The request body is invalid");
+  private static final byte[] INVALID_BODY_WITH_EXCEPTION =
+      "400The request body is invalid with exception".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] PUBLISH_FAILED =
+      "400Fail to publish message to queue".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] WRITE_SUCCESSFUL =
+      responseBody(HttpServletResponse.SC_OK, "Write successful");
+
+  // no line per ride, these are reported by AsyncLog every few seconds
+  private static final LongAdder RIDES_SENT = AsyncLog.counter("rides.sent");
+  private static final LongAdder RIDES_PUBLISH_FAILED = AsyncLog.counter("rides.publishFailed");
+
   public static final String rabbitMQName = "skiRideQueue";
   public static final String rabbitMQHost = "localhost";
-  private ConnectionFactory factory = new ConnectionFactory();
+  private RabbitMQChannelPool channelPool;
+
+  private final int defaultChannelPoolSize = 32;
+  private final int defaultChannelBorrowTimeoutMillis = 1000;
+
+  @Override
+  public void init() throws ServletException {
+    super.init();
+
+    AsyncLog.configure(getInitParameter("logLevel"), getInitParameter("logSampleRate"));
+    // one connection and a fixed set of channels for the whole life of the servlet
+    ConnectionFactory factory = new ConnectionFactory();
+    factory.setHost(rabbitMQHost);
+    int poolSize = getIntInitParameter("channelPoolSize", defaultChannelPoolSize);
+    long borrowTimeoutMillis = getIntInitParameter("channelBorrowTimeoutMillis",
+        defaultChannelBorrowTimeoutMillis);
+    try {
+      channelPool = new RabbitMQChannelPool(factory, rabbitMQName, poolSize, borrowTimeoutMillis);
+    } catch (Exception e) {
+      throw new ServletException("Fail to connect to rabbitmq at " + rabbitMQHost, e);
+    }
+  }
 
-  private final int validUrlPathLength = 8;
-  private final int validUrlPathResortNumberPosition = 1;
-  private final int validUrlPathSeasonPosition = 2;
-  private final int validUrlPathSeasonIDPosition = 3;
-  private final int validUrlPathDaysPosition = 4;
-  private final int validUrlPathDaysIDPosition = 5;
-  private final int validUrlPathSkiersPosition = 6;
-  private final int validUrlPathSkiersIDPosition = 7;
+  @Override
+  public void destroy() {
+    if (channelPool != null) {
+      channelPool.close();
+    }
+    super.destroy();
+  }
 
+  private int getIntInitParameter(String name, int defaultValue) {
+    String value = getInitParameter(name);
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+    return Integer.parseInt(value.trim());
+  }
 
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
@@ -44,16 +89,16 @@ public class SkierServlet extends HttpServlet {
       return;
     }
 
-    String[] urlParts = urlPath.split("/");
+    SkierUrlPath skierPath = new SkierUrlPath();
     // and now validate url path and return the response status code
     // (and maybe also some value if input is valid)
 
-    if (!isUrlValid(urlParts)) {
+    if (!skierPath.parse(urlPath)) {
       res.setStatus(HttpServletResponse.SC_NOT_FOUND);
     } else {
       res.setStatus(HttpServletResponse.SC_OK);
-      // do any sophisticated processing with urlParts which contains all the url params
-      // TODO: process url params in `urlParts`
+      // do any sophisticated processing with skierPath which contains all the url params
+      // TODO: process url params in `skierPath`
       res.getWriter().write("It works!");
     }
   }
@@ -66,101 +111,85 @@ public class SkierServlet extends HttpServlet {
   protected void doPost(HttpServletRequest request, HttpServletResponse response)
       throws ServletException, IOException {
 
-    factory.setHost(rabbitMQHost);
-    PrintWriter printWriter = response.getWriter();
     response.setContentType("application/json");
     response.setCharacterEncoding("UTF-8");
     String urlPath = request.getPathInfo();
 
     // check we have a URL!
     if(urlPath == null || urlPath.isEmpty()){
-      response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-      response.getWriter().write("missing parameters");
+      writeResponse(response, HttpServletResponse.SC_NOT_FOUND, MISSING_PARAMETERS);
       return;
     }
 
-    String[] urlParts = urlPath.split("/");
+    SkierUrlPath skierPath = new SkierUrlPath();
 
     // check url is valid
-    if (!isUrlValid(urlParts)) {
-      Message message = new Message("The request url is invalid");
-      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-      printWriter.write(response.getStatus() + gson.toJson(message));
+    if (!skierPath.parse(urlPath)) {
+      writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, INVALID_URL);
       return;
     }
 
+    LiftRideRecord liftRideRecord;
     try {
-      StringBuilder stringBuilder = new StringBuilder();
-      String str;
-      while ((str = request.getReader().readLine()) != null) {
-        stringBuilder.append(str);
+      // decode time and liftID straight from the request bytes
+      LiftRideBodyParser bodyParser = new LiftRideBodyParser();
+      if (!bodyParser.parse(request.getInputStream())) {
+        writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, INVALID_BODY);
+        return;
       }
-      LiftRideRecord liftRideRecord = gson.fromJson(stringBuilder.toString(), LiftRideRecord.class);
-      liftRideRecord.setResortID( Integer.parseInt(urlParts[validUrlPathResortNumberPosition]));
-      liftRideRecord.setSeasonID(urlParts[validUrlPathSeasonIDPosition]);
-      liftRideRecord.setDayID(urlParts[validUrlPathDaysIDPosition]);
-      liftRideRecord.setSkierID(Integer.parseInt(urlParts[validUrlPathSkiersIDPosition]));
+      liftRideRecord = new LiftRideRecord(skierPath.getSkierID(),
+          skierPath.getResortID(),
+          bodyParser.getLiftID(),
+          Integer.toString(skierPath.getSeasonID()),
+          Integer.toString(skierPath.getDayID()),
+          bodyParser.getTime());
+    } catch (IOException e) {
+      writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, INVALID_BODY_WITH_EXCEPTION);
+      return;
+    }
 
+    if (!isPostValid(liftRideRecord)) {
+      writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, INVALID_BODY);
+      return;
+    }
 
-      if (!isPostValid(liftRideRecord)) {
-        Message message = new Message("The request body is invalid");
-        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-        printWriter.write(response.getStatus() + gson.toJson(message));
+    // send to rabbitmq
+    Channel channel = null;
+    try {
+      channel = channelPool.borrowChannel();
+      if (channel == null) {
+        RIDES_PUBLISH_FAILED.increment();
+        writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, PUBLISH_FAILED);
         return;
       }
-
-      // send to rabbitmq
-      try (Connection connection = factory.newConnection(); Channel channel = connection.createChannel()){
-        channel.queueDeclare(rabbitMQName, false, false, false, null);
-        channel.basicPublish("", rabbitMQName, null, liftRideRecord.toString().getBytes());
-        System.out.println(" Sent " + liftRideRecord);
-      } catch (Exception e) {
-        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-        printWriter.write(response.getStatus()  + "Fail to publish message to queue");
-        return;
+      ByteBuffer body = ByteBuffer.allocate(LiftRideRecordCodec.RECORD_SIZE);
+      LiftRideRecordCodec.encode(body, liftRideRecord);
+      channel.basicPublish("", rabbitMQName, null, body.array());
+      RIDES_SENT.increment();
+      if (AsyncLog.sampleDebug()) {
+        AsyncLog.debug("rideSent", "record", liftRideRecord);
       }
-
-      response.setStatus(HttpServletResponse.SC_OK);
-      printWriter.write(response.getStatus() + gson.toJson(stringBuilder));
-    } catch ( Exception e) {
-      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-      printWriter.write(response.getStatus()  + "The request body is invalid with exception");
+    } catch (Exception e) {
+      RIDES_PUBLISH_FAILED.increment();
+      writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, PUBLISH_FAILED);
+      return;
+    } finally {
+      channelPool.returnChannel(channel);
     }
 
+    writeResponse(response, HttpServletResponse.SC_OK, WRITE_SUCCESSFUL);
   }
 
-  private boolean isUrlValid(String[] urlPath) {
-    // validate the request url path according to the API spec
-    // example valid path
-    // "/skier/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}"
-
-    String dayID = "1";
-    String seasonID = "2024";
-    int resortID_Max = 10;
-    int resortID_Min = 1;
-    int skierID_Max = 100000;
-    int skierID_Min = 1;
-
-    if (urlPath.length == validUrlPathLength) {
-      return urlPath[validUrlPathSeasonPosition].equals("seasons")
-          && urlPath[validUrlPathDaysPosition].equals("days")
-          && urlPath[validUrlPathSkiersPosition].equals("skiers")
-          && urlPath[validUrlPathResortNumberPosition]!= null
-          && isNumeric(urlPath[validUrlPathResortNumberPosition])
-          && urlPath[validUrlPathSeasonIDPosition]!= null
-          && isNumeric(urlPath[validUrlPathSeasonIDPosition])
-          && urlPath[validUrlPathDaysIDPosition]!= null
-          && isNumeric(urlPath[validUrlPathDaysIDPosition])
-          && urlPath[validUrlPathSkiersIDPosition]!= null
-          && isNumeric(urlPath[validUrlPathSkiersIDPosition])
-          && urlPath[validUrlPathDaysIDPosition].equals(dayID)
-          && urlPath[validUrlPathSeasonIDPosition].equals(seasonID)
-          && Integer.parseInt(urlPath[validUrlPathResortNumberPosition]) >= resortID_Min
-          && Integer.parseInt(urlPath[validUrlPathResortNumberPosition]) <= resortID_Max
-          && Integer.parseInt(urlPath[validUrlPathSkiersIDPosition]) >= skierID_Min
-          && Integer.parseInt(urlPath[validUrlPathSkiersIDPosition]) <= skierID_Max;
-    }
-    return false;
+  private void writeResponse(HttpServletResponse response, int status, byte[] body)
+      throws IOException {
+    response.setStatus(status);
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  private static byte[] responseBody(int status, String message) {
+    // same layout as before, the status code followed by the json message
+    return (status + new Gson().toJson(new Message(message))).getBytes(StandardCharsets.UTF_8);
   }
 
 
@@ -177,14 +206,4 @@ public class SkierServlet extends HttpServlet {
         && liftRideRecord.getLiftID() <= liftID_Max;
   }
 
-
-  private  boolean isNumeric(String str) {
-    // check number is Numeric or not
-    try {
-      Double.parseDouble(str);
-      return true;
-    } catch(NumberFormatException e){
-      return false;
-    }
-  }
 }
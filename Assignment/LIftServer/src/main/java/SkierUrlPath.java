@@ -0,0 +1,118 @@
+public class SkierUrlPath {
+
+  /*
+  single pass parser for "/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}",
+  it walks the path by index and keeps the ids as primitives, invalid input never
+  allocates or throws
+
+  seasonID and dayID must be exactly "2024" and "1" like the split("/") check before,
+  "02024" or "01" are rejected
+   */
+
+  private static final String SEASONS = "/seasons/";
+  private static final String DAYS = "/days/";
+  private static final String SKIERS = "/skiers/";
+  // more digits than this could overflow an int and are out of range anyway
+  private static final int MAX_DIGITS = 9;
+
+  private static final int SEASON_ID = 2024;
+  private static final int SEASON_ID_DIGITS = 4;
+  private static final int DAY_ID = 1;
+  private static final int DAY_ID_DIGITS = 1;
+  private static final int RESORT_ID_MIN = 1;
+  private static final int RESORT_ID_MAX = 10;
+  private static final int SKIER_ID_MIN = 1;
+  private static final int SKIER_ID_MAX = 100000;
+
+  private int resortID;
+  private int seasonID;
+  private int dayID;
+  private int skierID;
+
+  // value and digit count of the last number read by readNumber
+  private int number;
+  private int digits;
+
+  public boolean parse(String urlPath) {
+    if (urlPath == null || urlPath.isEmpty() || urlPath.charAt(0) != '/') {
+      return false;
+    }
+
+    int index = readNumber(urlPath, 1);
+    if (index < 0 || number < RESORT_ID_MIN || number > RESORT_ID_MAX) {
+      return false;
+    }
+    resortID = number;
+
+    index = readNumber(urlPath, skipLiteral(urlPath, index, SEASONS));
+    if (index < 0 || number != SEASON_ID || digits != SEASON_ID_DIGITS) {
+      return false;
+    }
+    seasonID = number;
+
+    index = readNumber(urlPath, skipLiteral(urlPath, index, DAYS));
+    if (index < 0 || number != DAY_ID || digits != DAY_ID_DIGITS) {
+      return false;
+    }
+    dayID = number;
+
+    index = readNumber(urlPath, skipLiteral(urlPath, index, SKIERS));
+    if (index < 0 || number < SKIER_ID_MIN || number > SKIER_ID_MAX) {
+      return false;
+    }
+    skierID = number;
+
+    // a single trailing slash is accepted, like split("/") used to
+    int length = urlPath.length();
+    return index == length || (index == length - 1 && urlPath.charAt(index) == '/');
+  }
+
+  private int skipLiteral(String urlPath, int index, String literal) {
+    if (index < 0 || !urlPath.startsWith(literal, index)) {
+      return -1;
+    }
+    return index + literal.length();
+  }
+
+  private int readNumber(String urlPath, int index) {
+    if (index < 0) {
+      return -1;
+    }
+    int length = urlPath.length();
+    int start = index;
+    int value = 0;
+    while (index < length) {
+      char c = urlPath.charAt(index);
+      if (c == '/') {
+        break;
+      }
+      if (c < '0' || c > '9' || index - start >= MAX_DIGITS) {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+      index++;
+    }
+    if (index == start) {
+      return -1;
+    }
+    number = value;
+    digits = index - start;
+    return index;
+  }
+
+  public int getResortID() {
+    return resortID;
+  }
+
+  public int getSeasonID() {
+    return seasonID;
+  }
+
+  public int getDayID() {
+    return dayID;
+  }
+
+  public int getSkierID() {
+    return skierID;
+  }
+}
@@ -0,0 +1,160 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import model.LiftRideRecordCodec;
+
+
+public class ApplyRing {
+
+  /*
+  bounded multi producer single consumer handoff from the delivery threads to one apply
+  thread, every slot holds a 20 byte record, its rideID and the delivery it came from
+
+    producers  take the next sequence with getAndIncrement and wait until the consumer
+               has freed that slot, then copy the record and mark the slot available
+               with the round number of the sequence
+    consumer   the one apply thread reads the slots in sequence order and frees them
+
+  a producer waiting for a slot is what slows the delivery threads down when an apply
+  thread falls behind, with the prefetch window that in turn slows the broker down
+
+  a consumer which finds the ring empty spins, then yields, then parks without a
+  timeout, the put which makes a record available while it is parked unparks it, so an
+  idle apply thread costs nothing
+   */
+
+  public interface RecordConsumer {
+    void accept(ByteBuffer buffer, int base, long rideID, Object token);
+  }
+
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 100;
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final int capacity;
+  private final int mask;
+  private final int indexShift;
+  private final byte[] records;
+  private final ByteBuffer recordWriter;
+  private final ByteBuffer recordView;
+  private final long[] rideIDs;
+  private final Object[] tokens;
+  // round number of the sequence last written into each slot
+  private final AtomicIntegerArray available;
+
+  private final AtomicLong claimSequence = new AtomicLong(-1);
+  // only written by the consumer
+  private final AtomicLong consumedSequence = new AtomicLong(-1);
+  // the consumer while it is parked on an empty ring, null otherwise
+  private volatile Thread parkedConsumer;
+
+  public ApplyRing(int capacity) {
+    if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+    }
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    this.indexShift = Integer.numberOfTrailingZeros(capacity);
+    this.records = new byte[capacity * LiftRideRecordCodec.RECORD_SIZE];
+    // absolute gets and puts do not touch the buffer's position, so threads can share it
+    this.recordWriter = ByteBuffer.wrap(records);
+    this.recordView = ByteBuffer.wrap(records).asReadOnlyBuffer();
+    this.rideIDs = new long[capacity];
+    this.tokens = new Object[capacity];
+    this.available = new AtomicIntegerArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      available.set(i, -1);
+    }
+  }
+
+  /*
+  copies the record at base of buffer into the ring, waits while the ring is full
+   */
+  public void put(ByteBuffer buffer, int base, long rideID, Object token) {
+    long sequence = claimSequence.incrementAndGet();
+    int idleCount = 0;
+    while (sequence - capacity > consumedSequence.get()) {
+      idleCount = idle(idleCount);
+    }
+    int slot = (int) sequence & mask;
+    int slotBase = slot * LiftRideRecordCodec.RECORD_SIZE;
+    // the record is five ints long
+    for (int offset = 0; offset < LiftRideRecordCodec.RECORD_SIZE; offset += Integer.BYTES) {
+      recordWriter.putInt(slotBase + offset, buffer.getInt(base + offset));
+    }
+    rideIDs[slot] = rideID;
+    tokens[slot] = token;
+    // the record, rideID and token are visible to the consumer once it sees the round, a
+    // volatile store so it cannot pass the read of parkedConsumer below
+    available.set(slot, (int) (sequence >>> indexShift));
+    Thread consumer = parkedConsumer;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  /*
+  hands every available record to the consumer, in order, returns how many there were,
+  only the ring's one consumer thread may call this
+   */
+  public int drain(RecordConsumer consumer) {
+    long next = consumedSequence.get() + 1;
+    int drained = 0;
+    while (true) {
+      int slot = (int) next & mask;
+      if (available.get(slot) != (int) (next >>> indexShift)) {
+        return drained;
+      }
+      Object token = tokens[slot];
+      tokens[slot] = null;
+      consumer.accept(recordView, slot * LiftRideRecordCodec.RECORD_SIZE, rideIDs[slot], token);
+      consumedSequence.lazySet(next);
+      next += 1;
+      drained += 1;
+    }
+  }
+
+  /*
+  called by the consumer when drain found nothing, returns the next idleCount, after
+  spinning and yielding it parks until a put makes a record available or the thread is
+  unparked, e.g. to shut down
+   */
+  public int awaitRecords(int idleCount) {
+    if (idleCount <= SPIN_TRIES + YIELD_TRIES) {
+      return idle(idleCount);
+    }
+    parkedConsumer = Thread.currentThread();
+    // a put which did not see parkedConsumer has made its record available by now
+    long next = consumedSequence.get() + 1;
+    if (available.get((int) next & mask) != (int) (next >>> indexShift)) {
+      LockSupport.park(this);
+    }
+    parkedConsumer = null;
+    return idleCount;
+  }
+
+  /*
+  true when every record put so far has been drained
+   */
+  public boolean isEmpty() {
+    return consumedSequence.get() >= claimSequence.get();
+  }
+
+  public long getDepth() {
+    return Math.max(0, claimSequence.get() - consumedSequence.get());
+  }
+
+  /*
+  a producer waiting for the consumer to free a slot, only while the ring is full
+   */
+  private static int idle(int idleCount) {
+    if (idleCount > SPIN_TRIES + YIELD_TRIES) {
+      LockSupport.parkNanos(PARK_NANOS);
+    } else if (idleCount > SPIN_TRIES) {
+      Thread.yield();
+    }
+    return idleCount + 1;
+  }
+}
@@ -0,0 +1,149 @@
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import model.LiftRideRecordCodec;
+import store.SkierStore;
+
+
+public class ApplyStage {
+
+  /*
+  the apply side of the consumer, the delivery threads only split message bodies into
+  records and hand each one to the apply thread that owns its skier
+
+    delivery threads   any number, put records on the ApplyRing of the skier's shard
+    apply threads      applyThreads single writers, each drains its own ring and runs
+                       the handler, then tells the delivery it is done
+
+  the shard of a skier is SkierStore.applyShardOf, so a store stripe is only ever
+  written by one apply thread and the rides of one skier are applied in delivery order
+
+  a handler which throws an UncheckedIOException, the ride log failing to write, is
+  called again with the same ride after a pause, 10 ms doubling up to 1 s, the way the
+  file transport's reader retries, the apply thread's later rides wait behind it, any
+  other exception fails the ride and its delivery is dropped
+   */
+
+  private static final Metrics.Histogram APPLY_TIME = Metrics.histogram(
+      "consumer_apply_duration_seconds", "Time to log and apply one ride on an apply thread");
+  private static final LongAdder APPLY_FAILED = Metrics.counter("consumer_apply_failures_total",
+      "Rides whose apply failed for good, their delivery is dropped");
+  private static final LongAdder APPLY_RETRIED = Metrics.counter("consumer_apply_retries_total",
+      "Ride applies which failed with an I/O error and were tried again");
+  private static final long FIRST_RETRY_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long MAX_RETRY_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  public interface Completion {
+    void applied(boolean success);
+  }
+
+  private final RideSubscriber.RideHandler handler;
+  private final ApplyRing[] rings;
+  private final Thread[] threads;
+  private final ApplyRing.RecordConsumer applier = this::apply;
+  private volatile boolean running = true;
+
+  public ApplyStage(RideSubscriber.RideHandler handler, int applyThreads, int ringCapacity) {
+    this.handler = handler;
+    // a power of two so every store stripe maps to one shard
+    int shardCount = Integer.highestOneBit(Math.max(1, applyThreads));
+    this.rings = new ApplyRing[shardCount];
+    this.threads = new Thread[shardCount];
+    for (int shard = 0; shard < shardCount; shard++) {
+      ApplyRing ring = new ApplyRing(ringCapacity);
+      rings[shard] = ring;
+      threads[shard] = new Thread(() -> applyLoop(ring), "apply-" + shard);
+      threads[shard].setDaemon(true);
+    }
+  }
+
+  public void start() {
+    for (Thread thread : threads) {
+      thread.start();
+    }
+  }
+
+  public int getShardCount() {
+    return rings.length;
+  }
+
+  /*
+  called by a delivery thread, waits while the shard's ring is full
+   */
+  public void submit(ByteBuffer buffer, int base, long rideID, Completion completion) {
+    int shard = SkierStore.applyShardOf(LiftRideRecordCodec.getSkierID(buffer, base), rings.length);
+    rings[shard].put(buffer, base, rideID, completion);
+  }
+
+  private void applyLoop(ApplyRing ring) {
+    int idleCount = 0;
+    while (true) {
+      if (ring.drain(applier) > 0) {
+        idleCount = 0;
+      } else if (!running && ring.isEmpty()) {
+        return;
+      } else {
+        idleCount = ring.awaitRecords(idleCount);
+      }
+    }
+  }
+
+  private void apply(ByteBuffer buffer, int base, long rideID, Object token) {
+    long retryParkNanos = FIRST_RETRY_PARK_NANOS;
+    while (true) {
+      long startTime = System.nanoTime();
+      try {
+        // the publisher's clock is in another process
+        handler.onRide(buffer, base, rideID, -1);
+        APPLY_TIME.observeSince(startTime);
+        ((Completion) token).applied(true);
+        return;
+      } catch (UncheckedIOException e) {
+        APPLY_RETRIED.increment();
+        AsyncLog.error("rideApplyRetried", e, "skierID", LiftRideRecordCodec.getSkierID(buffer, base),
+            "retryMillis", TimeUnit.NANOSECONDS.toMillis(retryParkNanos));
+        if (!running) {
+          // never completed, the delivery stays unacked and the broker redelivers it
+          return;
+        }
+        LockSupport.parkNanos(retryParkNanos);
+        retryParkNanos = Math.min(retryParkNanos * 2, MAX_RETRY_PARK_NANOS);
+      } catch (RuntimeException e) {
+        APPLY_FAILED.increment();
+        AsyncLog.error("rideApplyFailed", e, "skierID", LiftRideRecordCodec.getSkierID(buffer, base));
+        ((Completion) token).applied(false);
+        return;
+      }
+    }
+  }
+
+  public long getDepth() {
+    long depth = 0;
+    for (ApplyRing ring : rings) {
+      depth += ring.getDepth();
+    }
+    return depth;
+  }
+
+  /*
+  apply threads finish what is already on their rings before they exit
+   */
+  public void close(long timeoutMillis) {
+    running = false;
+    for (Thread thread : threads) {
+      // an idle apply thread is parked until a put, this wakes it to see running
+      LockSupport.unpark(thread);
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    for (Thread thread : threads) {
+      try {
+        thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+}
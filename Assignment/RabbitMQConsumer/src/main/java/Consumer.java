@@ -1,37 +1,136 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.LongAdder;
+import model.LiftRideRecordCodec;
+import store.SkierStore;
 
 
+public class Consumer {
 
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
-import com.rabbitmq.client.DeliverCallback;
-import com.google.gson.JsonObject;
-import java.io.*;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
+  public static final SkierStore store = new SkierStore(256);
+  public static final ResortDayIndex resortDayIndex = new ResortDayIndex();
+  public static RideLog rideLog;
+  // no line per ride, AsyncLog reports the count every few seconds
+  private static final LongAdder RIDES_APPLIED = AsyncLog.counter("rides.applied");
+  private static final LongAdder RIDES_REJECTED = AsyncLog.counter("rides.rejected");
+  private static final LongAdder RIDES_DUPLICATE = AsyncLog.counter("rides.duplicate");
 
+  public static void main(String[] argv) throws Exception {
 
-public class Consumer {
+    // usage: Consumer [numberOfThread] [basicQos] [ackBatchSize] [host] [queueName] [queryPort] [rideLogDirectory]
+    //                 [transport] [transportDirectory] [shardCount] [shards] [applyThreads]
+    //                 [applyRingCapacity]
+    int numberOfThread = argv.length > 0 ? Integer.parseInt(argv[0]) : Runtime.getRuntime().availableProcessors();
+    int basicqos = argv.length > 1 ? Integer.parseInt(argv[1]) : 100;
+    int ackBatchSize = argv.length > 2 ? Integer.parseInt(argv[2]) : basicqos / 2;
+    String host = argv.length > 3 ? argv[3] : "localhost";
+    String QueueName = argv.length > 4 ? argv[4] : "skiRideQueue";
+    int queryPort = argv.length > 5 ? Integer.parseInt(argv[5]) : 8081;
+    String rideLogDirectory = argv.length > 6 ? argv[6] : "rideLog";
+    // rabbitmq, or file to read the segment files SkierServlet writes with transport=file
+    String transportName = argv.length > 7 ? argv[7] : "rabbitmq";
+    String transportDirectory = argv.length > 8 ? argv[8] : "ride-queue";
+    // the shardCount SkierServlet publishes with, and which of the shards this process owns
+    int shardCount = argv.length > 9 ? Integer.parseInt(argv[9]) : 1;
+    int[] ownedShards = SkierShard.parse(argv.length > 10 ? argv[10] : "all", shardCount);
+    // single writer apply threads, rounded down to a power of two, each fed by its own ring
+    int applyThreads = argv.length > 11 ? Integer.parseInt(argv[11]) : Runtime.getRuntime().availableProcessors();
+    int applyRingCapacity = argv.length > 12 ? Integer.parseInt(argv[12]) : 4096;
+    int rideLogSegmentSize = 64 * 1024 * 1024;
+    // rideIDs remembered to skip redeliveries, more than the rides in flight unacked
+    int rideLogDedupeWindow = 1 << 20;
+    long rideLogFsyncIntervalMillis = 1000;
+    long shutdownTimeoutMillis = 10000;
 
-  public static final Map<Integer, List<JsonObject>> record = new ConcurrentHashMap<>();
+    // rebuild the in-memory store from the log before any new delivery is applied
+    long recoverStartTime = System.currentTimeMillis();
+    // a partition per apply thread, so the apply threads do not share a lock on the log
+    rideLog = new RideLog(Paths.get(rideLogDirectory), applyThreads, rideLogSegmentSize,
+        rideLogFsyncIntervalMillis, rideLogDedupeWindow);
+    long recovered = rideLog.recover(Consumer::applyToStore);
+    AsyncLog.info("rideLogRecovered", "rides", recovered, "partitions", rideLog.getPartitionCount(),
+        "millis", System.currentTimeMillis() - recoverStartTime);
 
-  public static void main(String[] argv) throws Exception {
+    RideSubscriber transport;
+    if (transportName.equals("file")) {
+      transport = new MappedFileRideTransport(Paths.get(transportDirectory), 64 * 1024 * 1024, 1000);
+    } else {
+      transport = new RabbitMQRideTransport(host, QueueName, shardCount, ownedShards, basicqos,
+          ackBatchSize, shutdownTimeoutMillis, applyThreads, applyRingCapacity);
+    }
+    transport.subscribe(Consumer::applyRide, numberOfThread);
+    registerMetrics(transport);
 
-    int numberOfThread = 1;
-    int basicqos = 10;
-    String QueueName = "";
-    ConnectionFactory factory = new ConnectionFactory();
-    Connection connection = factory.newConnection();
+    SkierQueryServer queryServer = new SkierQueryServer(queryPort, 4, store, resortDayIndex);
+    queryServer.start();
+    AsyncLog.info("waitingForMessages", "transport", transportName, "consumers", numberOfThread,
+        "applyThreads", applyThreads, "queryPort", queryPort);
 
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      queryServer.stop();
+      transport.close();
+      rideLog.close();
+      AsyncLog.stop(1000);
+    }));
+  }
 
-    ExecutorService multiThreadPool = Executors.newFixedThreadPool(numberOfThread);
+  private static void registerMetrics(RideSubscriber transport) {
+    Metrics.counter("consumer_rides_applied_total", "Rides logged and applied to the store",
+        RIDES_APPLIED::sum);
+    // the consumer's lag behind the broker, rides taken off the queue but not applied yet
+    Metrics.gauge("consumer_apply_queue_depth", "Rides received but not applied yet, -1 if unknown",
+        transport::getDepth);
+    Metrics.gauge("consumer_store_skiers", "Skiers in the store", store::getSkierCount);
+    Metrics.gauge("consumer_store_rides", "Rides in the store", store::getTotalRideCount);
+  }
 
-    for (int num = 0; num < numberOfThread; num ++) {
-      multiThreadPool.execute(new ConsumerThread(connection, queu, basicqos));
+  static void applyRide(ByteBuffer buffer, int base, long rideID, long publishNanos) {
+    if (!isValidRide(buffer, base)) {
+      // it would never apply, dropped instead of logged so it is not redelivered forever
+      RIDES_REJECTED.increment();
+      AsyncLog.warn("rideRejected", "skierID", LiftRideRecordCodec.getSkierID(buffer, base),
+          "liftID", LiftRideRecordCodec.getLiftID(buffer, base));
+      return;
+    }
+    try {
+      if (!rideLog.append(buffer, base, rideID)) {
+        // a redelivery of a ride which is logged and applied already
+        RIDES_DUPLICATE.increment();
+        return;
+      }
+    } catch (IOException e) {
+      // without the log entry the ride would be lost on restart, it is not applied and
+      // the apply stage hands it over again until the log takes it
+      throw new UncheckedIOException(e);
+    }
+    applyToStore(buffer, base);
+    RIDES_APPLIED.increment();
+    if (AsyncLog.sampleDebug()) {
+      AsyncLog.debug("rideApplied", "skierID", LiftRideRecordCodec.getSkierID(buffer, base));
     }
   }
 
+  static void applyToStore(ByteBuffer buffer, int base) {
+    // read the fields in place, nothing but the packed ride is kept
+    int resortID = LiftRideRecordCodec.getResortID(buffer, base);
+    int seasonID = LiftRideRecordCodec.getSeasonID(buffer, base);
+    int dayID = LiftRideRecordCodec.getDayID(buffer, base);
+    boolean firstRideOfDay = store.addRide(LiftRideRecordCodec.getSkierID(buffer, base),
+        resortID, seasonID, dayID,
+        LiftRideRecordCodec.getLiftID(buffer, base),
+        LiftRideRecordCodec.getTime(buffer, base));
+    if (firstRideOfDay) {
+      resortDayIndex.addSkier(resortID, seasonID, dayID);
+    }
+  }
 
+  /*
+  the queue is not trusted, a liftID out of range would otherwise reach the store
+   */
+  static boolean isValidRide(ByteBuffer buffer, int base) {
+    int liftID = LiftRideRecordCodec.getLiftID(buffer, base);
+    return liftID >= SkierStore.LIFT_ID_MIN && liftID <= SkierStore.LIFT_ID_MAX;
+  }
 }
@@ -1,59 +1,277 @@
-import com.google.gson.JsonObject;
-import com.google.gson.Gson;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.DeliverCallback;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Collections;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import model.LiftRideRecordCodec;
+
+public class ConsumerThread {
+
+  /*
+  one consumer on its own channel of the shared connection, the I/O stage of the
+  consumer: a delivery is only split into records which are handed to the ApplyStage,
+  the dispatch thread never applies a ride itself
+
+  a delivery is done once every record of it has been applied, deliveries finish out of
+  order across apply threads, so acks go out with multiple=true for the longest run of
+  done deliveries, every ackBatchSize of them
+
+  a ride whose apply fails with an error which passes, the ride log's IOException on a
+  full disk, is retried by the ApplyStage until it applies, its delivery just waits, and
+  on shutdown it stays unacked so the broker redelivers it
+
+  a delivery in which a ride failed for good is nacked on its own without requeue, the
+  queues have no dead letter exchange so the broker drops it, a requeue would put the
+  same failure back forever and apply the rides after newer rides of the same skier
+   */
+
+  private static final LongAdder DELIVERIES = Metrics.counter("consumer_deliveries_total",
+      "Messages delivered by the broker");
+  private static final LongAdder DELIVERED_RECORDS = Metrics.counter("consumer_delivered_rides_total",
+      "Rides in the delivered messages");
+  private static final LongAdder UNDECODABLE = Metrics.counter("consumer_undecodable_deliveries_total",
+      "Messages which were not whole rides, acked and dropped");
+  private static final LongAdder ACKED = Metrics.counter("consumer_acked_deliveries_total",
+      "Deliveries acked after all their rides were applied");
+  private static final LongAdder NACKED = Metrics.counter("consumer_nacked_deliveries_total",
+      "Deliveries nacked without requeue and dropped because a ride of them failed for good");
+  // how long the delivery callback blocks, mostly waiting for room on a full apply ring
+  private static final Metrics.Histogram DISPATCH_TIME = Metrics.histogram(
+      "consumer_dispatch_duration_seconds", "Time in the delivery callback");
+  private static final Metrics.Histogram DELIVERY_TIME = Metrics.histogram(
+      "consumer_delivery_apply_duration_seconds", "From delivery until every ride of it was applied");
 
-public class ConsumerThread implements Runnable {
-  Gson gson = new Gson();
   private Connection connection;
   private String queueName;
+  // the only consumer of its queue, the broker refuses a second one
+  private boolean exclusive;
   private int basicQos;
+  private int ackBatchSize;
+  private final ApplyStage applyStage;
 
-  public ConsumerThread(Connection connection, String queueName, int basicQos) {
+  private Channel channel;
+  private String consumerTag;
+  private final CountDownLatch cancelled = new CountDownLatch(1);
 
+  // guarded by this, every delivery up to lastDeliveryTag is done, unackedCount of them not acked
+  private long lastDeliveryTag;
+  private int unackedCount;
+  private long highestDeliveryTag;
+  // done deliveries past lastDeliveryTag, by tag, the prefetch window bounds how far ahead they are
+  private final boolean[] done;
+  private final boolean[] failed;
+  private final int doneMask;
+
+  public ConsumerThread(Connection connection, String queueName, boolean exclusive, int basicQos,
+      int ackBatchSize, ApplyStage applyStage) {
+
+    if (basicQos <= 0) {
+      throw new IllegalArgumentException("basicQos must bound the deliveries in flight: " + basicQos);
+    }
     this.connection = connection;
     this.queueName = queueName;
+    this.exclusive = exclusive;
     this.basicQos = basicQos;
+    // acking at most every basicQos messages keeps the prefetch window from running dry
+    this.ackBatchSize = Math.max(1, Math.min(ackBatchSize, basicQos));
+    this.applyStage = applyStage;
+    int doneSize = Integer.highestOneBit(basicQos) << 1;
+    this.done = new boolean[doneSize];
+    this.failed = new boolean[doneSize];
+    this.doneMask = doneSize - 1;
   }
 
-  @Override
-  public void run() {
+  /*
+  throws when the consumer cannot be started, with exclusive that includes a queue which
+  another consumer already has, i.e. a shard owned by two consumer processes
+   */
+  public void start() throws IOException {
 
     try {
-      Channel channel = connection.createChannel();
+      channel = connection.createChannel();
       channel.queueDeclare(queueName, false, false, false, null);
       channel.basicQos(basicQos);
 
+      consumerTag = channel.basicConsume(queueName, false, "", false, exclusive, null,
+          new DefaultConsumer(channel) {
+            @Override
+            public void handleDelivery(String consumerTag, Envelope envelope,
+                AMQP.BasicProperties properties, byte[] body) throws IOException {
+              dispatch(envelope.getDeliveryTag(), properties.getMessageId(), body);
+            }
 
-      DeliverCallback deliverCallback = (consumerTag, delivery) -> {
+            @Override
+            public void handleCancelOk(String consumerTag) {
+              // every delivery dispatched before the cancel has been handed to the apply stage
+              cancelled.countDown();
+            }
 
-        String message = new String(delivery.getBody(), "UTF-8");
-        try {
-          JsonObject jsonObject = gson.fromJson(message, JsonObject.class);
-          Integer skierID = jsonObject.get("skierID").getAsInt();
-
-          if ( Consumer.record.containsKey(skierID) ) {
-            Consumer.record.get(skierID).add(jsonObject);
-          } else {
-            List<JsonObject> jsonObjects = Collections.synchronizedList(new ArrayList<>());
-            jsonObjects.add(jsonObject);
-            Consumer.record.put(skierID, jsonObjects);
-          }
-          System.out.println("Successful consume object: " + jsonObject + ", Thread Id is: " + Thread.currentThread().getId());
-        } catch ( Exception e) {
-          String error_message = String.format("Fail to consume Object %s", message);
-          System.out.println(error_message + e);
+            @Override
+            public void handleCancel(String consumerTag) {
+              cancelled.countDown();
+            }
+          });
+    } catch (IOException e) {
+      if (exclusive) {
+        throw new IOException("Fail to consume " + queueName
+            + " exclusively, is its shard owned by another consumer?", e);
+      }
+      throw e;
+    }
+
+  }
+
+  private void dispatch(long deliveryTag, String messageID, byte[] body) throws IOException {
+    long startTime = System.nanoTime();
+    DELIVERIES.increment();
+    synchronized (this) {
+      highestDeliveryTag = deliveryTag;
+    }
+    // a single ride, or a batch of rides packed back to back
+    if (body.length == 0 || body.length % LiftRideRecordCodec.RECORD_SIZE != 0) {
+      // a record we cannot decode will never succeed, it is acked and dropped
+      UNDECODABLE.increment();
+      AsyncLog.warn("undecodableDelivery", "queue", queueName, "bytes", body.length);
+      completed(deliveryTag, true);
+      return;
+    }
+    int records = body.length / LiftRideRecordCodec.RECORD_SIZE;
+    DELIVERED_RECORDS.add(records);
+    PendingDelivery delivery = new PendingDelivery(deliveryTag, messageID, records, startTime);
+    ByteBuffer buffer = ByteBuffer.wrap(body);
+    long firstRideID = firstRideID(messageID);
+    // not under the lock, a full ring waits here for apply threads which call completed
+    for (int record = 0; record < records; record++) {
+      applyStage.submit(buffer, record * LiftRideRecordCodec.RECORD_SIZE,
+          firstRideID == RideLog.NO_RIDE_ID ? RideLog.NO_RIDE_ID : firstRideID + record, delivery);
+    }
+    DISPATCH_TIME.observeSince(startTime);
+  }
+
+  /*
+  RabbitMQProducer sets the message id to the rideID of the first ride in the body, the
+  others follow on, a message without one is not deduplicated
+   */
+  private static long firstRideID(String messageID) {
+    if (messageID == null) {
+      return RideLog.NO_RIDE_ID;
+    }
+    try {
+      long rideID = Long.parseLong(messageID);
+      return rideID < 0 ? RideLog.NO_RIDE_ID : rideID;
+    } catch (NumberFormatException e) {
+      return RideLog.NO_RIDE_ID;
+    }
+  }
+
+  private synchronized void completed(long deliveryTag, boolean success) throws IOException {
+    int index = (int) deliveryTag & doneMask;
+    done[index] = true;
+    failed[index] = !success;
+    while (done[(int) (lastDeliveryTag + 1) & doneMask]) {
+      long next = lastDeliveryTag + 1;
+      int nextIndex = (int) next & doneMask;
+      done[nextIndex] = false;
+      if (failed[nextIndex]) {
+        failed[nextIndex] = false;
+        // ack everything before it, then drop the failed one
+        flushAcks();
+        if (channel.isOpen()) {
+          channel.basicNack(next, false, false);
+          NACKED.increment();
         }
-      };
+      } else {
+        unackedCount += 1;
+      }
+      lastDeliveryTag = next;
+    }
+    if (unackedCount >= ackBatchSize) {
+      flushAcks();
+    }
+    notifyAll();
+  }
 
-      channel.basicConsume(queueName, true, deliverCallback, consumerTag -> {});
+  public synchronized void flushAcks() throws IOException {
+    if (unackedCount > 0 && channel.isOpen()) {
+      channel.basicAck(lastDeliveryTag, true);
+      ACKED.add(unackedCount);
+      unackedCount = 0;
+    }
+  }
+
+  private synchronized void awaitApplied(long deadlineNanos) throws InterruptedException {
+    while (lastDeliveryTag < highestDeliveryTag) {
+      long remaining = deadlineNanos - System.nanoTime();
+      if (remaining <= 0) {
+        return;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+  }
+
+  public void shutdown(long timeoutMillis) {
+    // stop new deliveries, wait until the prefetched ones are applied, then ack what is left
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    try {
+      if (consumerTag != null && channel.isOpen()) {
+        channel.basicCancel(consumerTag);
+        cancelled.await(timeoutMillis, TimeUnit.MILLISECONDS);
+      }
+      awaitApplied(deadline);
+      flushAcks();
+      if (channel != null && channel.isOpen()) {
+        channel.close();
+      }
     } catch (Exception e) {
-      e.printStackTrace();
+      AsyncLog.error("consumerShutdownFailed", e, "queue", queueName);
+    }
+  }
+
+  /*
+  one delivery on its way through the apply stage, done when all its records are applied
+   */
+  private class PendingDelivery implements ApplyStage.Completion {
+    private final long deliveryTag;
+    private final String messageID;
+    private final int records;
+    private final AtomicInteger remaining;
+    private final AtomicInteger failedRides = new AtomicInteger();
+    private final long deliveredNanos;
+
+    private PendingDelivery(long deliveryTag, String messageID, int records, long deliveredNanos) {
+      this.deliveryTag = deliveryTag;
+      this.messageID = messageID;
+      this.records = records;
+      this.remaining = new AtomicInteger(records);
+      this.deliveredNanos = deliveredNanos;
     }
 
+    @Override
+    public void applied(boolean success) {
+      if (!success) {
+        failedRides.incrementAndGet();
+      }
+      if (remaining.decrementAndGet() == 0) {
+        DELIVERY_TIME.observeSince(deliveredNanos);
+        int failures = failedRides.get();
+        if (failures > 0) {
+          // every failed ride was logged by the ApplyStage with its skierID
+          AsyncLog.warn("deliveryDropped", "queue", queueName, "messageID", messageID,
+              "rides", records, "failedRides", failures);
+        }
+        try {
+          completed(deliveryTag, failures == 0);
+        } catch (IOException e) {
+          // the channel is gone, the broker redelivers everything that was not acked
+          AsyncLog.warn("ackFailed", "queue", queueName, "deliveryTag", deliveryTag, "error", e);
+        }
+      }
+    }
   }
 }
@@ -0,0 +1,128 @@
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+public class RabbitMQRideTransport implements RideSubscriber {
+
+  /*
+  the consuming side of the rabbitmq transport, rides are published by RabbitMQProducer
+  in Server, every ConsumerThread has its own channel of one connection
+
+  with one shard there is one ConsumerThread per subscriber thread, all competing on the
+  one queue, with shardCount > 1 there is one exclusive ConsumerThread per owned shard,
+  so all rides of a skier are applied by one consumer in publish order and consumer
+  processes on other machines can own the other shards
+
+  the ConsumerThreads only split deliveries into records, the handler runs on the
+  applyThreads single writer threads of an ApplyStage, so the dispatch pool size and
+  the apply parallelism are set independently
+   */
+
+  private final String host;
+  private final String queueName;
+  private final int shardCount;
+  private final int[] ownedShards;
+  private final int basicQos;
+  private final int ackBatchSize;
+  private final long shutdownTimeoutMillis;
+  private final int applyThreads;
+  private final int applyRingCapacity;
+
+  private ApplyStage applyStage;
+  private ExecutorService multiThreadPool;
+  private Connection connection;
+  private final List<ConsumerThread> consumerThreads = new ArrayList<>();
+
+  public RabbitMQRideTransport(String host, String queueName, int shardCount, int[] ownedShards,
+      int basicQos, int ackBatchSize, long shutdownTimeoutMillis, int applyThreads,
+      int applyRingCapacity) {
+    if (shardCount < 1) {
+      throw new IllegalArgumentException("shardCount must be at least 1: " + shardCount);
+    }
+    this.host = host;
+    this.queueName = queueName;
+    this.shardCount = shardCount;
+    this.ownedShards = ownedShards;
+    this.basicQos = basicQos;
+    this.ackBatchSize = ackBatchSize;
+    this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    this.applyThreads = applyThreads;
+    this.applyRingCapacity = applyRingCapacity;
+  }
+
+  /*
+  fails, and closes what it started, when one of the consumers cannot be started
+   */
+  @Override
+  public synchronized void subscribe(RideHandler handler, int threads) throws Exception {
+    try {
+      startConsumers(handler, threads);
+    } catch (Exception e) {
+      close();
+      throw e;
+    }
+  }
+
+  private void startConsumers(RideHandler handler, int threads) throws Exception {
+    applyStage = new ApplyStage(handler, applyThreads, applyRingCapacity);
+    applyStage.start();
+
+    ConnectionFactory factory = new ConnectionFactory();
+    factory.setHost(host);
+    // deliveries run on this pool, one channel is dispatched by one thread at a time
+    multiThreadPool = Executors.newFixedThreadPool(threads);
+    connection = factory.newConnection(multiThreadPool);
+
+    if (shardCount == 1) {
+      for (int num = 0; num < threads; num ++) {
+        ConsumerThread consumerThread = new ConsumerThread(connection, queueName, false, basicQos,
+            ackBatchSize, applyStage);
+        consumerThreads.add(consumerThread);
+        consumerThread.start();
+      }
+      return;
+    }
+    for (int shard : ownedShards) {
+      ConsumerThread consumerThread = new ConsumerThread(connection,
+          SkierShard.queueName(queueName, shard, shardCount), true, basicQos, ackBatchSize, applyStage);
+      consumerThreads.add(consumerThread);
+      consumerThread.start();
+    }
+  }
+
+  @Override
+  public long getDepth() {
+    // records handed over by the delivery threads and not applied yet
+    return applyStage == null ? 0 : applyStage.getDepth();
+  }
+
+  @Override
+  public synchronized void close() {
+    for (ConsumerThread consumerThread : consumerThreads) {
+      consumerThread.shutdown(shutdownTimeoutMillis);
+    }
+    if (applyStage != null) {
+      applyStage.close(shutdownTimeoutMillis);
+    }
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (Exception e) {
+        connection.abort();
+      }
+    }
+    if (multiThreadPool != null) {
+      multiThreadPool.shutdown();
+      try {
+        multiThreadPool.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
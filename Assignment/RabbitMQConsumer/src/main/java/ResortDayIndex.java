@@ -0,0 +1,24 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import store.SkierStore;
+
+public class ResortDayIndex {
+
+  /*
+  unique skier count per resort, season and day, the consumer bumps it once for
+  the first ride of a skier on that day so reads are a single map lookup
+   */
+
+  private final Map<Long, LongAdder> uniqueSkiers = new ConcurrentHashMap<>();
+
+  public void addSkier(int resortID, int seasonID, int dayID) {
+    uniqueSkiers.computeIfAbsent(SkierStore.dayKey(resortID, seasonID, dayID), key -> new LongAdder())
+        .increment();
+  }
+
+  public long getUniqueSkierCount(int resortID, int seasonID, int dayID) {
+    LongAdder count = uniqueSkiers.get(SkierStore.dayKey(resortID, seasonID, dayID));
+    return count == null ? 0 : count.sum();
+  }
+}
@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import model.LiftRideRecordCodec;
+import store.SkierStore;
+
+public class RideLog {
+
+  /*
+  append-only log of every applied ride, split into partitions by skier, each a
+  directory partition-0, partition-1, ... of fixed size memory mapped segment files
+  rides-00000000.log, rides-00000001.log, ...
+
+  a skier's rides all go to the partition SkierStore.applyShardOf picks for it, the
+  same way the ApplyStage picks its apply thread, so with as many partitions as apply
+  threads every apply thread appends to its own partition and no two of them share a
+  lock, the rides of a skier stay in order inside their partition
+
+  the number of partitions is fixed when the log is created, a log which already has
+  partitions is opened with as many as it has, so a skier's rides never move to another
+  partition, with more apply threads than partitions some threads share one
+
+  an entry is 32 bytes, a 4 byte marker, the 20 byte LiftRideRecordCodec record and the
+  8 byte rideID, the marker is written last so a torn entry at the tail is ignored on
+  recovery, entries are a power of two long so none of them straddles a page or a disk
+  sector, a background thread forces the active segment of every partition to disk
+  every fsyncIntervalMillis, rides written after the last force survive a process crash
+  but not a power loss
+
+  the rideID is what the transport knows the ride by, the same on a redelivery, every
+  partition remembers the last dedupeWindow / partitions of its rideIDs and refuses to
+  append one of those again, so a ride redelivered after its delivery failed, or after
+  a crash before the ack, is applied once, a redelivery goes to the same partition as
+  the first delivery since it is the same skier, the windows are refilled from the log
+  on recovery, a rideID of -1 is not known and never refused
+   */
+
+  public interface RecordHandler {
+    void handle(ByteBuffer buffer, int base);
+  }
+
+  private static final int ENTRY_MARKER = 0x52494432;
+  private static final int MARKER_SIZE = 4;
+  private static final int RIDE_ID_OFFSET = MARKER_SIZE + LiftRideRecordCodec.RECORD_SIZE;
+  public static final int ENTRY_SIZE = 32;
+  public static final long NO_RIDE_ID = -1;
+  private static final String PARTITION_PREFIX = "partition-";
+  private static final String SEGMENT_PREFIX = "rides-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private final Path directory;
+  private final int newLogPartitions;
+  private final int segmentSize;
+  private final long fsyncIntervalMillis;
+  private final int dedupeWindow;
+  private ScheduledExecutorService fsyncExecutor;
+  // set by recover
+  private volatile Partition[] partitions;
+
+  public RideLog(Path directory, int partitions, int segmentSize, long fsyncIntervalMillis,
+      int dedupeWindow) {
+    this.directory = directory;
+    // a power of two, as SkierStore.applyShardOf needs
+    this.newLogPartitions = Integer.highestOneBit(Math.max(1, partitions));
+    // a segment always holds a whole number of entries
+    this.segmentSize = Math.max(ENTRY_SIZE, segmentSize - segmentSize % ENTRY_SIZE);
+    this.fsyncIntervalMillis = fsyncIntervalMillis;
+    this.dedupeWindow = dedupeWindow;
+  }
+
+  /*
+  replays every entry of every partition, a partition's segments in order, and then
+  opens each partition for appends right after its last complete entry, returns the
+  number of entries replayed
+   */
+  public synchronized long recover(RecordHandler handler) throws IOException {
+    Files.createDirectories(directory);
+    int partitionCount = countPartitions();
+    if (partitionCount == 0) {
+      partitionCount = newLogPartitions;
+    } else if (partitionCount != newLogPartitions) {
+      AsyncLog.info("rideLogPartitionsKept", "directory", directory, "partitions", partitionCount,
+          "requested", newLogPartitions);
+    }
+    Partition[] recovered = new Partition[partitionCount];
+    long replayed = 0;
+    for (int index = 0; index < partitionCount; index++) {
+      recovered[index] = new Partition(partitionPath(index),
+          Math.max(1, dedupeWindow / partitionCount));
+      replayed += recovered[index].recover(handler);
+    }
+    partitions = recovered;
+
+    fsyncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "ride-log-fsync");
+      thread.setDaemon(true);
+      return thread;
+    });
+    fsyncExecutor.scheduleWithFixedDelay(this::force, fsyncIntervalMillis, fsyncIntervalMillis,
+        TimeUnit.MILLISECONDS);
+    return replayed;
+  }
+
+  public boolean append(byte[] record, long rideID) throws IOException {
+    return append(ByteBuffer.wrap(record), 0, rideID);
+  }
+
+  /*
+  appends the record at base of buffer, e.g. a slot of a transport's buffer, without
+  copying it to an array first, false without appending when rideID is already in the
+  log, then the ride has been applied before, only the skier's partition is locked
+   */
+  public boolean append(ByteBuffer buffer, int base, long rideID) throws IOException {
+    Partition[] current = partitions;
+    if (current == null) {
+      throw new IllegalStateException("RideLog must be recovered before appending");
+    }
+    int skierID = LiftRideRecordCodec.getSkierID(buffer, base);
+    return current[SkierStore.applyShardOf(skierID, current.length)].append(buffer, base, rideID);
+  }
+
+  public int getPartitionCount() {
+    Partition[] current = partitions;
+    return current == null ? 0 : current.length;
+  }
+
+  public void force() {
+    Partition[] current = partitions;
+    if (current == null) {
+      return;
+    }
+    for (Partition partition : current) {
+      partition.force();
+    }
+  }
+
+  public void close() {
+    if (fsyncExecutor != null) {
+      fsyncExecutor.shutdown();
+    }
+    force();
+  }
+
+  private Path partitionPath(int index) {
+    return directory.resolve(PARTITION_PREFIX + index);
+  }
+
+  /*
+  the partitions of an existing log, 0 for a new one
+   */
+  private int countPartitions() throws IOException {
+    int count = 0;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PARTITION_PREFIX + "*")) {
+      for (Path ignored : stream) {
+        count += 1;
+      }
+    }
+    for (int index = 0; index < count; index++) {
+      if (!Files.isDirectory(partitionPath(index))) {
+        throw new IOException(partitionPath(index) + " is missing, the log has " + count + " partitions");
+      }
+    }
+    if (count > 0 && Integer.bitCount(count) != 1) {
+      throw new IOException(directory + " has " + count + " partitions, not a power of two");
+    }
+    return count;
+  }
+
+  /*
+  one directory of segments, appended to by the apply threads of its skiers, the
+  fsync thread forces it
+   */
+  private final class Partition {
+    private final Path directory;
+    // guarded by this
+    private final RideIdWindow recentRideIDs;
+    private int segmentIndex;
+    private MappedByteBuffer segment;
+    private boolean dirty;
+
+    private Partition(Path directory, int dedupeWindow) {
+      this.directory = directory;
+      this.recentRideIDs = new RideIdWindow(dedupeWindow);
+    }
+
+    private synchronized long recover(RecordHandler handler) throws IOException {
+      Files.createDirectories(directory);
+      List<Path> segments = listSegments();
+      long replayed = 0;
+      int endOfLastSegment = 0;
+      for (Path path : segments) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+          MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+          int base = 0;
+          while (base + ENTRY_SIZE <= buffer.limit() && buffer.getInt(base) == ENTRY_MARKER) {
+            recentRideIDs.add(buffer.getLong(base + RIDE_ID_OFFSET));
+            handler.handle(buffer, base + MARKER_SIZE);
+            base += ENTRY_SIZE;
+            replayed += 1;
+          }
+          endOfLastSegment = base;
+        }
+      }
+      segmentIndex = segments.isEmpty() ? 0 : segmentIndexOf(segments.get(segments.size() - 1));
+      segment = mapSegment(segmentIndex);
+      segment.position(endOfLastSegment);
+      return replayed;
+    }
+
+    private synchronized boolean append(ByteBuffer buffer, int base, long rideID) throws IOException {
+      if (recentRideIDs.contains(rideID)) {
+        return false;
+      }
+      if (segment.remaining() < ENTRY_SIZE) {
+        // the full segment is made durable before the next one is started
+        segment.force();
+        segmentIndex += 1;
+        segment = mapSegment(segmentIndex);
+      }
+      int entry = segment.position();
+      // the record is five ints long
+      for (int offset = 0; offset < LiftRideRecordCodec.RECORD_SIZE; offset += Integer.BYTES) {
+        segment.putInt(entry + MARKER_SIZE + offset, buffer.getInt(base + offset));
+      }
+      segment.putLong(entry + RIDE_ID_OFFSET, rideID);
+      segment.position(entry + ENTRY_SIZE);
+      segment.putInt(entry, ENTRY_MARKER);
+      dirty = true;
+      recentRideIDs.add(rideID);
+      return true;
+    }
+
+    private synchronized void force() {
+      if (segment != null && dirty) {
+        segment.force();
+        dirty = false;
+      }
+    }
+
+    private MappedByteBuffer mapSegment(int index) throws IOException {
+      Path path = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        // the mapping stays valid after the channel is closed
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+      }
+    }
+
+    private int segmentIndexOf(Path path) {
+      String name = path.getFileName().toString();
+      return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private List<Path> listSegments() throws IOException {
+      List<Path> segments = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+          SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+        for (Path path : stream) {
+          segments.add(path);
+        }
+      }
+      // zero padded names sort in segment order
+      Collections.sort(segments);
+      return segments;
+    }
+  }
+
+  /*
+  the last capacity rideIDs added, a ring in insertion order and an open addressing set
+  over it, the oldest rideID leaves the set when the ring wraps, no allocation per ride
+   */
+  private static final class RideIdWindow {
+    private static final long EMPTY = NO_RIDE_ID;
+
+    private final long[] ring;
+    private final long[] table;
+    private final int tableMask;
+    private int next;
+
+    private RideIdWindow(int capacity) {
+      this.ring = new long[Math.max(1, capacity)];
+      Arrays.fill(ring, EMPTY);
+      // at most half full
+      this.table = new long[Integer.highestOneBit(ring.length) << 2];
+      Arrays.fill(table, EMPTY);
+      this.tableMask = table.length - 1;
+    }
+
+    private boolean contains(long rideID) {
+      if (rideID == EMPTY) {
+        return false;
+      }
+      for (int slot = slotOf(rideID); table[slot] != EMPTY; slot = (slot + 1) & tableMask) {
+        if (table[slot] == rideID) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void add(long rideID) {
+      if (rideID == EMPTY || contains(rideID)) {
+        return;
+      }
+      remove(ring[next]);
+      ring[next] = rideID;
+      next = next + 1 == ring.length ? 0 : next + 1;
+      int slot = slotOf(rideID);
+      while (table[slot] != EMPTY) {
+        slot = (slot + 1) & tableMask;
+      }
+      table[slot] = rideID;
+    }
+
+    private void remove(long rideID) {
+      if (rideID == EMPTY) {
+        return;
+      }
+      int slot = slotOf(rideID);
+      while (table[slot] != rideID) {
+        if (table[slot] == EMPTY) {
+          return;
+        }
+        slot = (slot + 1) & tableMask;
+      }
+      // shift the rest of the probe run back so lookups never stop at the hole
+      int hole = slot;
+      for (int probe = (hole + 1) & tableMask; table[probe] != EMPTY; probe = (probe + 1) & tableMask) {
+        int home = slotOf(table[probe]);
+        if (((probe - home) & tableMask) >= ((probe - hole) & tableMask)) {
+          table[hole] = table[probe];
+          hole = probe;
+        }
+      }
+      table[hole] = EMPTY;
+    }
+
+    private int slotOf(long rideID) {
+      long mixed = rideID * 0x9E3779B97F4A7C15L;
+      return (int) (mixed ^ (mixed >>> 32)) & tableMask;
+    }
+  }
+}
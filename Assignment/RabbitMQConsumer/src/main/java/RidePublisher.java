@@ -0,0 +1,40 @@
+import java.util.concurrent.CompletableFuture;
+import model.LiftRideRecord;
+
+
+public interface RidePublisher {
+
+  /*
+  the sending end of the way lift rides travel from SkierServlet to the consumer,
+  records are carried in the LiftRideRecordCodec layout, a transport with both ends in
+  reach of one process implements RideSubscriber as well, implementations:
+
+    MappedFileRideTransport   memory mapped segment files, processes on one machine
+
+  the rabbitmq side is published by RabbitMQProducer in Server
+
+  copy of the interface in Server, keep the two in step
+   */
+
+  /*
+  the returned future completes once the transport has accepted the record, and fails
+  when the record cannot be accepted
+   */
+  CompletableFuture<Void> publish(LiftRideRecord record);
+
+  /*
+  publishes count rides packed back to back in the LiftRideRecordCodec layout, the
+  transport owns the array afterwards, once every ride is settled the future completes
+  with a flag per ride in records order, true when the transport accepted that ride, it
+  fails when the transport could not accept any of them, e.g. when it is full or closed
+   */
+  CompletableFuture<boolean[]> publishBatch(byte[] records, int count);
+
+  /*
+  rides this side of the transport has accepted but not handed on yet, -1 when the
+  transport cannot tell
+   */
+  long getDepth();
+
+  void close();
+}
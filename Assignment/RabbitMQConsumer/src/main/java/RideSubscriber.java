@@ -0,0 +1,40 @@
+import java.nio.ByteBuffer;
+
+
+public interface RideSubscriber {
+
+  /*
+  the receiving end of the way lift rides travel from SkierServlet to the consumer, the
+  records are handed over in the LiftRideRecordCodec layout, implementations:
+
+    RabbitMQRideTransport     rabbitmq, published by RabbitMQProducer in Server
+    MappedFileRideTransport   memory mapped segment files, processes on one machine
+
+  copy of the interface in Server, keep the two in step
+   */
+
+  interface RideHandler {
+    /*
+    rideID is how the transport knows the ride, the same when it is delivered again, or
+    -1 when the transport never delivers a ride twice or cannot tell, publishNanos is the
+    publisher's System.nanoTime(), or -1 when the ride crossed a process boundary and the
+    time cannot be compared
+     */
+    void onRide(ByteBuffer buffer, int base, long rideID, long publishNanos);
+  }
+
+  /*
+  starts delivering rides to the handler on the given number of threads, a ride is
+  handed over once, the transport considers it done when onRide returns, throws when
+  the rides cannot be delivered
+   */
+  void subscribe(RideHandler handler, int threads) throws Exception;
+
+  /*
+  rides this side of the transport has accepted but not handed on yet, -1 when the
+  transport cannot tell
+   */
+  long getDepth();
+
+  void close();
+}
@@ -0,0 +1,120 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import model.SkierUrlPath;
+import store.SkierStore;
+
+public class SkierQueryServer {
+
+  /*
+  read side of the consumer, answers from the aggregates the consumer keeps up to date
+
+    GET /skiers/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}        total vertical
+    GET /skiers/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}/lifts  every ride's liftID
+    GET /resorts/{resortID}/seasons/{seasonID}/day/{dayID}/skiers                  unique skiers
+    GET /metrics                                                                   prometheus text
+
+  the paths are checked by SkierUrlPath, with the same ranges SkierServlet enforces on
+  the ids a ride is posted with, anything else is a 404 like a GET on SkierServlet
+   */
+
+  private static final String SKIERS_PREFIX = "/skiers";
+  private static final String RESORTS_PREFIX = "/resorts";
+  private static final String LIFTS_SUFFIX = "/lifts";
+  private static final String INVALID_URL = "{\"message\":\"The request url is invalid\"}";
+
+  private final SkierStore store;
+  private final ResortDayIndex resortDayIndex;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  public SkierQueryServer(int port, int numberOfThread, SkierStore store,
+      ResortDayIndex resortDayIndex) throws IOException {
+    this.store = store;
+    this.resortDayIndex = resortDayIndex;
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.executor = Executors.newFixedThreadPool(numberOfThread);
+    server.setExecutor(executor);
+    server.createContext("/skiers/", this::handleSkier);
+    server.createContext("/resorts/", this::handleResort);
+    server.createContext("/metrics", this::handleMetrics);
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  private void handleSkier(HttpExchange exchange) throws IOException {
+    // the context path, then the path SkierServlet is mapped under, with /lifts at the end
+    String urlPath = exchange.getRequestURI().getPath().substring(SKIERS_PREFIX.length());
+    boolean lifts = urlPath.endsWith(LIFTS_SUFFIX);
+    if (lifts) {
+      urlPath = urlPath.substring(0, urlPath.length() - LIFTS_SUFFIX.length());
+    }
+    SkierUrlPath skierPath = new SkierUrlPath();
+    if (!"GET".equals(exchange.getRequestMethod()) || !skierPath.parse(urlPath)) {
+      respond(exchange, 404, INVALID_URL);
+      return;
+    }
+    int resortID = skierPath.getResortID();
+    int seasonID = skierPath.getSeasonID();
+    int dayID = skierPath.getDayID();
+    int skierID = skierPath.getSkierID();
+    if (lifts) {
+      StringBuilder body = new StringBuilder("[");
+      int[] liftIDs = store.getLifts(skierID, resortID, seasonID, dayID);
+      for (int i = 0; i < liftIDs.length; i++) {
+        body.append(i == 0 ? "" : ",").append(liftIDs[i]);
+      }
+      respond(exchange, 200, body.append(']').toString());
+    } else {
+      respond(exchange, 200, Integer.toString(store.getVertical(skierID, resortID, seasonID, dayID)));
+    }
+  }
+
+  private void handleResort(HttpExchange exchange) throws IOException {
+    String urlPath = exchange.getRequestURI().getPath().substring(RESORTS_PREFIX.length());
+    SkierUrlPath resortPath = new SkierUrlPath();
+    if (!"GET".equals(exchange.getRequestMethod()) || !resortPath.parseResortDay(urlPath)) {
+      respond(exchange, 404, INVALID_URL);
+      return;
+    }
+    long numSkiers = resortDayIndex.getUniqueSkierCount(resortPath.getResortID(),
+        resortPath.getSeasonID(), resortPath.getDayID());
+    respond(exchange, 200, "{\"numSkiers\":" + numSkiers + "}");
+  }
+
+  private void handleMetrics(HttpExchange exchange) throws IOException {
+    if (!"GET".equals(exchange.getRequestMethod()) || !exchange.getRequestURI().getPath().equals("/metrics")) {
+      respond(exchange, 404, INVALID_URL);
+      return;
+    }
+    StringBuilder metrics = new StringBuilder(8192);
+    Metrics.write(metrics);
+    byte[] bytes = metrics.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream outputStream = exchange.getResponseBody()) {
+      outputStream.write(bytes);
+    }
+  }
+
+  private void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream outputStream = exchange.getResponseBody()) {
+      outputStream.write(bytes);
+    }
+  }
+}
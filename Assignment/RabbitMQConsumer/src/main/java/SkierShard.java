@@ -0,0 +1,69 @@
+import java.util.Arrays;
+
+
+public final class SkierShard {
+
+  /*
+  which of shardCount queues a skier's rides go to, every ride of one skier lands on the
+  same queue, so the one consumer that owns the queue sees them in publish order
+
+  the shard is a jump consistent hash of the skierID (Lamping and Veach), when
+  shardCount grows from n to n + 1 only about 1 / (n + 1) of the skiers move, and
+  they all move to the new shard
+
+  with one shard the queue keeps its plain name, with more the shards are
+  queueName.0, queueName.1, ...
+
+  copy of the class in Server, both sides must agree on the hash
+   */
+
+  private SkierShard() {
+  }
+
+  public static int of(int skierID, int shardCount) {
+    long key = skierID;
+    long bucket = -1;
+    long next = 0;
+    while (next < shardCount) {
+      bucket = next;
+      key = key * 2862933555777941757L + 1;
+      next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+    }
+    return (int) bucket;
+  }
+
+  public static String queueName(String queueName, int shard, int shardCount) {
+    return shardCount == 1 ? queueName : queueName + "." + shard;
+  }
+
+  /*
+  the shards a consumer owns, "all", a range "0-3" or a list "0,2,5"
+   */
+  public static int[] parse(String shards, int shardCount) {
+    if (shards == null || shards.equals("all")) {
+      int[] all = new int[shardCount];
+      for (int shard = 0; shard < shardCount; shard++) {
+        all[shard] = shard;
+      }
+      return all;
+    }
+    int[] owned;
+    int dash = shards.indexOf('-');
+    if (dash > 0) {
+      int from = Integer.parseInt(shards.substring(0, dash).trim());
+      int to = Integer.parseInt(shards.substring(dash + 1).trim());
+      owned = new int[Math.max(0, to - from + 1)];
+      for (int i = 0; i < owned.length; i++) {
+        owned[i] = from + i;
+      }
+    } else {
+      owned = Arrays.stream(shards.split(",")).mapToInt(shard -> Integer.parseInt(shard.trim())).toArray();
+    }
+    for (int shard : owned) {
+      if (shard < 0 || shard >= shardCount) {
+        throw new IllegalArgumentException("Shard " + shard + " is not in 0.." + (shardCount - 1));
+      }
+    }
+    return owned;
+  }
+}
@@ -0,0 +1,94 @@
+package model;
+
+import java.nio.ByteBuffer;
+
+public final class LiftRideRecordCodec {
+
+  /*
+  fixed binary layout of a lift ride on the queue, shared by Server, LIftServer
+  and RabbitMQConsumer, all values are big endian
+
+    offset  0  int    skierID
+    offset  4  int    resortID
+    offset  8  int    liftID
+    offset 12  int    time
+    offset 16  short  seasonID (unsigned)
+    offset 18  short  dayID (unsigned)
+   */
+
+  public static final int RECORD_SIZE = 20;
+
+  private static final int SKIER_ID_OFFSET = 0;
+  private static final int RESORT_ID_OFFSET = 4;
+  private static final int LIFT_ID_OFFSET = 8;
+  private static final int TIME_OFFSET = 12;
+  private static final int SEASON_ID_OFFSET = 16;
+  private static final int DAY_ID_OFFSET = 18;
+  private static final int MAX_SMALL_INT = 0xFFFF;
+
+  private LiftRideRecordCodec() {
+  }
+
+  public static void encode(ByteBuffer buffer, LiftRideRecord record) {
+    encode(buffer, record.getSkierID(), record.getResortID(), record.getLiftID(),
+        Integer.parseInt(record.getSeasonID()), Integer.parseInt(record.getDayID()),
+        record.getTime());
+  }
+
+  public static void encode(ByteBuffer buffer, int skierID, int resortID, int liftID,
+      int seasonID, int dayID, int time) {
+    if (seasonID < 0 || seasonID > MAX_SMALL_INT || dayID < 0 || dayID > MAX_SMALL_INT) {
+      throw new IllegalArgumentException("seasonID and dayID must fit in 16 bits");
+    }
+    buffer.putInt(skierID)
+        .putInt(resortID)
+        .putInt(liftID)
+        .putInt(time)
+        .putShort((short) seasonID)
+        .putShort((short) dayID);
+  }
+
+  public static byte[] encode(LiftRideRecord record) {
+    ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+    encode(buffer, record);
+    return buffer.array();
+  }
+
+  public static LiftRideRecord decode(ByteBuffer buffer) {
+    int base = buffer.position();
+    LiftRideRecord record = new LiftRideRecord(getSkierID(buffer, base),
+        getResortID(buffer, base),
+        getLiftID(buffer, base),
+        Integer.toString(getSeasonID(buffer, base)),
+        Integer.toString(getDayID(buffer, base)),
+        getTime(buffer, base));
+    buffer.position(base + RECORD_SIZE);
+    return record;
+  }
+
+  // absolute getters, they read one field of the record starting at base without copying it
+
+  public static int getSkierID(ByteBuffer buffer, int base) {
+    return buffer.getInt(base + SKIER_ID_OFFSET);
+  }
+
+  public static int getResortID(ByteBuffer buffer, int base) {
+    return buffer.getInt(base + RESORT_ID_OFFSET);
+  }
+
+  public static int getLiftID(ByteBuffer buffer, int base) {
+    return buffer.getInt(base + LIFT_ID_OFFSET);
+  }
+
+  public static int getTime(ByteBuffer buffer, int base) {
+    return buffer.getInt(base + TIME_OFFSET);
+  }
+
+  public static int getSeasonID(ByteBuffer buffer, int base) {
+    return buffer.getShort(base + SEASON_ID_OFFSET) & MAX_SMALL_INT;
+  }
+
+  public static int getDayID(ByteBuffer buffer, int base) {
+    return buffer.getShort(base + DAY_ID_OFFSET) & MAX_SMALL_INT;
+  }
+}
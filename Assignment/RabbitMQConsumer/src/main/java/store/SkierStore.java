@@ -0,0 +1,279 @@
+package store;
+
+import java.util.Arrays;
+
+public class SkierStore {
+
+  /*
+  in-memory lift rides keyed by skierID, every ride is packed into two longs
+
+    word 0  resortID << 32 | seasonID << 16 | dayID
+    word 1  liftID << 32 | time
+
+  skiers are spread over lock stripes, each stripe is an open addressing int -> rides
+  table backed by primitive arrays, a write only locks the stripe of its own skier
+
+  next to the raw rides every skier keeps running totals per resort, season and day
+  (vertical and the liftIDs ridden, in ride order with repeats), they are updated under
+  the same lock as the append so queries never have to scan the rides
+
+  liftID must be in LIFT_ID_MIN..LIFT_ID_MAX, the consumer drops rides outside it
+  before they get here
+   */
+
+  public interface RideVisitor {
+    void visit(int resortID, int seasonID, int dayID, int liftID, int time);
+  }
+
+  private static final int WORDS_PER_RIDE = 2;
+  private static final int INITIAL_RIDES_PER_SKIER = 4;
+  private static final int INITIAL_SKIERS_PER_STRIPE = 64;
+  // vertical meters gained per ride are ten times the liftID
+  private static final int VERTICAL_PER_LIFT = 10;
+  private static final int INITIAL_LIFTS_PER_DAY = 4;
+
+  // the range SkierServlet accepts
+  public static final int LIFT_ID_MIN = 1;
+  public static final int LIFT_ID_MAX = 40;
+
+  private final Stripe[] stripes;
+  private final int stripeMask;
+
+  public SkierStore(int stripeCount) {
+    // round up to a power of two so a stripe is picked with a mask
+    int count = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+    stripes = new Stripe[count];
+    for (int i = 0; i < count; i++) {
+      stripes[i] = new Stripe();
+    }
+    stripeMask = count - 1;
+  }
+
+  public static long dayKey(int resortID, int seasonID, int dayID) {
+    return ((long) resortID << 32) | ((seasonID & 0xFFFFL) << 16) | (dayID & 0xFFFFL);
+  }
+
+  /*
+  returns true when this is the first ride of the skier on that resort, season and day
+   */
+  public boolean addRide(int skierID, int resortID, int seasonID, int dayID, int liftID, int time) {
+    if (liftID < LIFT_ID_MIN || liftID > LIFT_ID_MAX) {
+      throw new IllegalArgumentException("liftID out of range: " + liftID);
+    }
+    long word0 = dayKey(resortID, seasonID, dayID);
+    long word1 = ((long) liftID << 32) | (time & 0xFFFFFFFFL);
+    Stripe stripe = stripeOf(skierID);
+    synchronized (stripe) {
+      int slot = stripe.add(skierID, word0, word1);
+      return stripe.days[slot].add(word0, liftID);
+    }
+  }
+
+  public int getVertical(int skierID, int resortID, int seasonID, int dayID) {
+    Stripe stripe = stripeOf(skierID);
+    synchronized (stripe) {
+      int slot = stripe.find(skierID);
+      if (slot < 0) {
+        return 0;
+      }
+      SkierDays skierDays = stripe.days[slot];
+      int day = skierDays.indexOf(dayKey(resortID, seasonID, dayID));
+      return day < 0 ? 0 : skierDays.verticals[day];
+    }
+  }
+
+  public int[] getLifts(int skierID, int resortID, int seasonID, int dayID) {
+    Stripe stripe = stripeOf(skierID);
+    synchronized (stripe) {
+      int slot = stripe.find(skierID);
+      if (slot < 0) {
+        return new int[0];
+      }
+      SkierDays skierDays = stripe.days[slot];
+      int day = skierDays.indexOf(dayKey(resortID, seasonID, dayID));
+      return day < 0 ? new int[0] : skierDays.lifts(day);
+    }
+  }
+
+  public int getRideCount(int skierID) {
+    Stripe stripe = stripeOf(skierID);
+    synchronized (stripe) {
+      int slot = stripe.find(skierID);
+      return slot < 0 ? 0 : stripe.rideCounts[slot];
+    }
+  }
+
+  public void forEachRide(int skierID, RideVisitor visitor) {
+    long[] rides;
+    int rideCount;
+    Stripe stripe = stripeOf(skierID);
+    synchronized (stripe) {
+      int slot = stripe.find(skierID);
+      if (slot < 0) {
+        return;
+      }
+      // rides are only appended, a snapshot of the prefix is enough for a consistent view
+      rides = stripe.rides[slot];
+      rideCount = stripe.rideCounts[slot];
+    }
+    for (int i = 0; i < rideCount; i++) {
+      long word0 = rides[i * WORDS_PER_RIDE];
+      long word1 = rides[i * WORDS_PER_RIDE + 1];
+      visitor.visit((int) (word0 >>> 32), (int) ((word0 >>> 16) & 0xFFFF), (int) (word0 & 0xFFFF),
+          (int) (word1 >>> 32), (int) word1);
+    }
+  }
+
+  public int getSkierCount() {
+    int total = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        total += stripe.size;
+      }
+    }
+    return total;
+  }
+
+  public long getTotalRideCount() {
+    long total = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        total += stripe.totalRides;
+      }
+    }
+    return total;
+  }
+
+  /*
+  the apply thread of a skier when shardCount single writer threads apply rides, with
+  shardCount a power of two no larger than the stripe count every stripe is written by
+  exactly one of them
+   */
+  public static int applyShardOf(int skierID, int shardCount) {
+    return mix(skierID) & (shardCount - 1);
+  }
+
+  private Stripe stripeOf(int skierID) {
+    return stripes[mix(skierID) & stripeMask];
+  }
+
+  private static int mix(int key) {
+    // spread sequential skierIDs over stripes and slots
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static class Stripe {
+    private int[] keys = new int[INITIAL_SKIERS_PER_STRIPE];
+    // a null entry marks a free slot
+    private long[][] rides = new long[INITIAL_SKIERS_PER_STRIPE][];
+    private int[] rideCounts = new int[INITIAL_SKIERS_PER_STRIPE];
+    private SkierDays[] days = new SkierDays[INITIAL_SKIERS_PER_STRIPE];
+    private int size;
+    private long totalRides;
+
+    private int find(int skierID) {
+      int mask = keys.length - 1;
+      int slot = mix(skierID) >>> 8 & mask;
+      while (rides[slot] != null) {
+        if (keys[slot] == skierID) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1 - slot;
+    }
+
+    private int add(int skierID, long word0, long word1) {
+      int slot = find(skierID);
+      if (slot < 0) {
+        if ((size + 1) * 4 > keys.length * 3) {
+          resize();
+          slot = find(skierID);
+        }
+        slot = -1 - slot;
+        keys[slot] = skierID;
+        rides[slot] = new long[INITIAL_RIDES_PER_SKIER * WORDS_PER_RIDE];
+        days[slot] = new SkierDays();
+        size += 1;
+      }
+      long[] skierRides = rides[slot];
+      int offset = rideCounts[slot] * WORDS_PER_RIDE;
+      if (offset == skierRides.length) {
+        skierRides = Arrays.copyOf(skierRides, skierRides.length * 2);
+        rides[slot] = skierRides;
+      }
+      skierRides[offset] = word0;
+      skierRides[offset + 1] = word1;
+      rideCounts[slot] += 1;
+      totalRides += 1;
+      return slot;
+    }
+
+    private void resize() {
+      int[] oldKeys = keys;
+      long[][] oldRides = rides;
+      int[] oldRideCounts = rideCounts;
+      SkierDays[] oldDays = days;
+      keys = new int[oldKeys.length * 2];
+      rides = new long[oldKeys.length * 2][];
+      rideCounts = new int[oldKeys.length * 2];
+      days = new SkierDays[oldKeys.length * 2];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldRides[i] != null) {
+          int slot = -1 - find(oldKeys[i]);
+          keys[slot] = oldKeys[i];
+          rides[slot] = oldRides[i];
+          rideCounts[slot] = oldRideCounts[i];
+          days[slot] = oldDays[i];
+        }
+      }
+    }
+  }
+
+  private static class SkierDays {
+    // a skier only visits a handful of resort days, a linear scan is cheaper than hashing
+    private long[] dayKeys = new long[1];
+    private int[] verticals = new int[1];
+    // the liftID of every ride that day, in ride order
+    private int[][] lifts = new int[1][];
+    private int[] liftCounts = new int[1];
+    private int size;
+
+    private int indexOf(long dayKey) {
+      for (int i = 0; i < size; i++) {
+        if (dayKeys[i] == dayKey) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private boolean add(long dayKey, int liftID) {
+      int day = indexOf(dayKey);
+      boolean firstRideOfDay = day < 0;
+      if (firstRideOfDay) {
+        if (size == dayKeys.length) {
+          dayKeys = Arrays.copyOf(dayKeys, size * 2);
+          verticals = Arrays.copyOf(verticals, size * 2);
+          lifts = Arrays.copyOf(lifts, size * 2);
+          liftCounts = Arrays.copyOf(liftCounts, size * 2);
+        }
+        day = size++;
+        dayKeys[day] = dayKey;
+        lifts[day] = new int[INITIAL_LIFTS_PER_DAY];
+      }
+      verticals[day] += liftID * VERTICAL_PER_LIFT;
+      // grows with the rides of the day, never with the value of liftID
+      if (liftCounts[day] == lifts[day].length) {
+        lifts[day] = Arrays.copyOf(lifts[day], liftCounts[day] * 2);
+      }
+      lifts[day][liftCounts[day]++] = liftID;
+      return firstRideOfDay;
+    }
+
+    private int[] lifts(int day) {
+      return Arrays.copyOf(lifts[day], liftCounts[day]);
+    }
+  }
+}
@@ -0,0 +1,142 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+public class AdmissionController {
+
+  /*
+  decides whether a POST may publish or is shed with a 503, publishes in flight are
+  bounded by a concurrency limit which adapts to the measured publish latency
+
+    no-load latency   the lowest latency of the last NO_LOAD_WINDOW publishes
+    gradient          LATENCY_TOLERANCE * no-load latency / smoothed latency, in [0.5, 1]
+    new limit         limit * gradient + sqrt(limit)
+
+  while the queue keeps up the gradient stays at 1 and the limit grows by sqrt(limit),
+  once publishes wait on the broker the gradient drops below 1 and the limit shrinks,
+  a failed publish cuts the limit by BACKOFF_RATIO, the limit always stays within
+  [minLimit, maxInFlight]
+   */
+
+  private static final double LATENCY_TOLERANCE = 2.0;
+  private static final double MIN_GRADIENT = 0.5;
+  private static final double SMOOTHING = 0.2;
+  private static final double BACKOFF_RATIO = 0.9;
+  private static final int NO_LOAD_WINDOW = 1000;
+  private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+  private final int minLimit;
+  private final int maxInFlight;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private volatile int limit;
+
+  private final LongAdder admitted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+
+  // guarded by this
+  private double estimatedLimit;
+  private double smoothedLatencyNanos;
+  private long noLoadLatencyNanos = Long.MAX_VALUE;
+  private long windowMinLatencyNanos = Long.MAX_VALUE;
+  private int windowSamples;
+
+  public AdmissionController(int initialLimit, int minLimit, int maxInFlight) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxInFlight = Math.max(this.minLimit, maxInFlight);
+    this.estimatedLimit = Math.max(this.minLimit, Math.min(initialLimit, this.maxInFlight));
+    this.limit = (int) estimatedLimit;
+  }
+
+  /*
+  true when the caller may publish, it must then call release exactly once
+   */
+  public boolean tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= limit) {
+        rejected.increment();
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        admitted.increment();
+        return true;
+      }
+    }
+  }
+
+  public void release(long latencyNanos, boolean success) {
+    int inFlightBefore = inFlight.getAndDecrement();
+    if (!success) {
+      failed.increment();
+    }
+    update(latencyNanos, success, inFlightBefore);
+  }
+
+  private synchronized void update(long latencyNanos, boolean success, int inFlightBefore) {
+    if (!success) {
+      estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF_RATIO);
+      limit = (int) estimatedLimit;
+      return;
+    }
+
+    noLoadLatencyNanos = Math.min(noLoadLatencyNanos, latencyNanos);
+    windowMinLatencyNanos = Math.min(windowMinLatencyNanos, latencyNanos);
+    windowSamples += 1;
+    if (windowSamples >= NO_LOAD_WINDOW) {
+      // start over from the latest window so a slower broker is not judged by an old best
+      noLoadLatencyNanos = windowMinLatencyNanos;
+      windowMinLatencyNanos = Long.MAX_VALUE;
+      windowSamples = 0;
+    }
+    smoothedLatencyNanos = smoothedLatencyNanos == 0 ? latencyNanos
+        : smoothedLatencyNanos * (1 - SMOOTHING) + latencyNanos * SMOOTHING;
+
+    // a limit that is not used says nothing about how much the queue can take
+    if (inFlightBefore * 2 < estimatedLimit) {
+      return;
+    }
+    double gradient = Math.max(MIN_GRADIENT,
+        Math.min(1.0, LATENCY_TOLERANCE * noLoadLatencyNanos / Math.max(1, smoothedLatencyNanos)));
+    double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+    estimatedLimit = Math.max(minLimit,
+        Math.min(maxInFlight, estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    limit = (int) estimatedLimit;
+  }
+
+  /*
+  seconds a shed client should wait, the header only has whole seconds so this is 1
+  unless a publish takes longer than that
+   */
+  public synchronized long getRetryAfterSeconds() {
+    return Math.max(1, (long) Math.ceil(smoothedLatencyNanos / NANOS_PER_SECOND));
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  public long getAdmittedCount() {
+    return admitted.sum();
+  }
+
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  public long getFailedCount() {
+    return failed.sum();
+  }
+
+  public synchronized double getSmoothedLatencyMillis() {
+    return smoothedLatencyNanos / 1_000_000.0;
+  }
+}
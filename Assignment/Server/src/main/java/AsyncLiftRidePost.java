@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import model.LiftRideRecord;
+import model.SkierUrlPath;
+
+
+public class AsyncLiftRidePost implements ReadListener, AsyncListener {
+
+  /*
+  one POST in async mode, the body is read with non-blocking I/O as the container
+  reports data, and the response is written with non-blocking I/O through a
+  WriteListener, so no thread waits for the client or for the queue
+
+  the publish completes on the transport's thread, for rabbitmq the confirm listener,
+  so the answer is handed back to a container thread with asyncContext.start and the
+  confirm thread only ever schedules it
+
+  onTimeout and onError must complete before they return, they write the short
+  response straight away on the container thread that calls them
+   */
+
+  private final AsyncContext asyncContext;
+  private final ServletInputStream inputStream;
+  private final RidePublisher transport;
+  private final AdmissionController admission;
+  private final LiftRideBodyParser bodyParser = new LiftRideBodyParser();
+  private final byte[] readBuffer = new byte[256];
+  private final AtomicBoolean responded = new AtomicBoolean(false);
+  private final long startNanos = System.nanoTime();
+
+  private final int skierID;
+  private final int resortID;
+  private final int seasonID;
+  private final int dayID;
+
+  public AsyncLiftRidePost(AsyncContext asyncContext, ServletInputStream inputStream,
+      RidePublisher transport, AdmissionController admission, SkierUrlPath skierPath) {
+    this.asyncContext = asyncContext;
+    this.inputStream = inputStream;
+    this.transport = transport;
+    this.admission = admission;
+    // only the ids are kept, not the path holder
+    this.skierID = skierPath.getSkierID();
+    this.resortID = skierPath.getResortID();
+    this.seasonID = skierPath.getSeasonID();
+    this.dayID = skierPath.getDayID();
+    bodyParser.reset();
+  }
+
+  @Override
+  public void onDataAvailable() throws IOException {
+    while (inputStream.isReady() && !inputStream.isFinished()) {
+      int read = inputStream.read(readBuffer);
+      if (read == -1) {
+        return;
+      }
+      if (!bodyParser.feed(readBuffer, 0, read)) {
+        SkierServlet.INVALID_BODIES.increment();
+        respond(HttpServletResponse.SC_BAD_REQUEST, SkierServlet.INVALID_BODY);
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void onAllDataRead() {
+    if (responded.get()) {
+      return;
+    }
+    if (!bodyParser.isComplete()) {
+      SkierServlet.INVALID_BODIES.increment();
+      respond(HttpServletResponse.SC_BAD_REQUEST, SkierServlet.INVALID_BODY);
+      return;
+    }
+    LiftRideRecord liftRideRecord = new LiftRideRecord(skierID, resortID, bodyParser.getLiftID(),
+        Integer.toString(seasonID), Integer.toString(dayID), bodyParser.getTime());
+    if (!SkierServlet.isPostValid(liftRideRecord)) {
+      SkierServlet.INVALID_BODIES.increment();
+      respond(HttpServletResponse.SC_BAD_REQUEST, SkierServlet.INVALID_BODY);
+      return;
+    }
+
+    if (!admission.tryAcquire()) {
+      SkierServlet.RIDES_SHED.increment();
+      respondRetryLater(SkierServlet.OVERLOADED);
+      return;
+    }
+    SkierServlet.publish(transport, admission, liftRideRecord).whenComplete((ignored, failure) -> {
+      try {
+        asyncContext.start(() -> {
+          if (failure == null) {
+            respond(HttpServletResponse.SC_OK, SkierServlet.WRITE_SUCCESSFUL);
+          } else {
+            respondRetryLater(SkierServlet.PUBLISH_FAILED);
+          }
+        });
+      } catch (IllegalStateException e) {
+        // the timeout already answered and completed the request
+      }
+    });
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    respond(HttpServletResponse.SC_BAD_REQUEST, SkierServlet.INVALID_BODY_WITH_EXCEPTION);
+  }
+
+  @Override
+  public void onTimeout(AsyncEvent event) {
+    // the confirm did not arrive within the async timeout
+    if (responded.compareAndSet(false, true)) {
+      SkierServlet.POST_METRICS.record(HttpServletResponse.SC_SERVICE_UNAVAILABLE, startNanos);
+      writeNow(HttpServletResponse.SC_SERVICE_UNAVAILABLE, SkierServlet.PUBLISH_FAILED, true);
+    }
+  }
+
+  @Override
+  public void onError(AsyncEvent event) {
+    if (responded.compareAndSet(false, true)) {
+      SkierServlet.POST_METRICS.record(HttpServletResponse.SC_BAD_REQUEST, startNanos);
+      writeNow(HttpServletResponse.SC_BAD_REQUEST, SkierServlet.INVALID_BODY_WITH_EXCEPTION, false);
+    }
+  }
+
+  @Override
+  public void onComplete(AsyncEvent event) {
+  }
+
+  @Override
+  public void onStartAsync(AsyncEvent event) {
+  }
+
+  private void respondRetryLater(byte[] body) {
+    respond(HttpServletResponse.SC_SERVICE_UNAVAILABLE, body, true);
+  }
+
+  private void respond(int status, byte[] body) {
+    respond(status, body, false);
+  }
+
+  /*
+  only on a container thread, the body goes out when the client can take it
+   */
+  private void respond(int status, byte[] body, boolean retryLater) {
+    // a late confirm may race with the timeout, only the first one answers
+    if (!responded.compareAndSet(false, true)) {
+      return;
+    }
+    SkierServlet.POST_METRICS.record(status, startNanos);
+    try {
+      HttpServletResponse response = startResponse(status, body, retryLater);
+      ServletOutputStream outputStream = response.getOutputStream();
+      outputStream.setWriteListener(new ResponseWriter(outputStream, body));
+    } catch (IOException | IllegalStateException e) {
+      // the client is gone, there is nobody left to answer
+      asyncContext.complete();
+    }
+  }
+
+  private void writeNow(int status, byte[] body, boolean retryLater) {
+    try {
+      startResponse(status, body, retryLater).getOutputStream().write(body);
+    } catch (IOException | IllegalStateException e) {
+      // the client is gone, there is nobody left to answer
+    } finally {
+      asyncContext.complete();
+    }
+  }
+
+  private HttpServletResponse startResponse(int status, byte[] body, boolean retryLater) {
+    HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+    if (retryLater) {
+      response.setHeader("Retry-After", Long.toString(admission.getRetryAfterSeconds()));
+    }
+    response.setStatus(status);
+    response.setContentLength(body.length);
+    return response;
+  }
+
+  /*
+  writes one response body without blocking, the request completes once the container
+  has taken all of it
+   */
+  private class ResponseWriter implements WriteListener {
+    private final ServletOutputStream outputStream;
+    private final byte[] body;
+    private boolean written;
+
+    private ResponseWriter(ServletOutputStream outputStream, byte[] body) {
+      this.outputStream = outputStream;
+      this.body = body;
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+      if (!written) {
+        written = true;
+        outputStream.write(body);
+      }
+      // false means the container is still sending, it calls back once it is done
+      if (outputStream.isReady()) {
+        asyncContext.complete();
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      asyncContext.complete();
+    }
+  }
+}
@@ -0,0 +1,26 @@
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+
+public class AsyncLogListener implements ServletContextListener {
+
+  /*
+  stops the AsyncLog writer thread when the webapp is undeployed, after every servlet
+  has been destroyed, so nothing of the webapp logs afterwards and the thread does not
+  outlive it and keep its classloader, a servlet reinitialised inside the running webapp
+  keeps logging
+
+  registered in web.xml, the same class is copied into LIftServer
+   */
+
+  private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    AsyncLog.stop(STOP_TIMEOUT_MILLIS);
+  }
+}
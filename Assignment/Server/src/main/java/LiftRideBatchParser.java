@@ -0,0 +1,345 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import model.LiftRideRecordCodec;
+import model.SkierUrlPath;
+
+public class LiftRideBatchParser {
+
+  /*
+  single pass parser for a batch POST body, either a json array of rides
+
+    [{"resortID": 1, "seasonID": 2024, "dayID": 1, "skierID": 7, "time": 217, "liftID": 21}, ...]
+
+  or the same objects one per line (newline delimited json), each ride is validated as
+  soon as its closing brace is read, valid rides are encoded straight into a packed
+  LiftRideRecordCodec buffer and every ride gets a valid / invalid flag in body order
+
+  a ride with a missing field or a value out of range only fails itself, broken json
+  fails the whole body since the following rides cannot be found reliably
+   */
+
+  private static final byte[][] KEYS = {
+      {'r', 'e', 's', 'o', 'r', 't', 'I', 'D'},
+      {'s', 'e', 'a', 's', 'o', 'n', 'I', 'D'},
+      {'d', 'a', 'y', 'I', 'D'},
+      {'s', 'k', 'i', 'e', 'r', 'I', 'D'},
+      {'t', 'i', 'm', 'e'},
+      {'l', 'i', 'f', 't', 'I', 'D'}};
+  private static final int RESORT_ID = 0;
+  private static final int SEASON_ID = 1;
+  private static final int DAY_ID = 2;
+  private static final int SKIER_ID = 3;
+  private static final int TIME = 4;
+  private static final int LIFT_ID = 5;
+  private static final int ALL_FIELDS = (1 << KEYS.length) - 1;
+  private static final int OTHER_FIELD = -1;
+
+  private static final int MAX_KEY_LENGTH = 16;
+  private static final int MAX_DIGITS = 9;
+  private static final int INITIAL_CAPACITY = 64;
+
+  private static final int START = 0;
+  private static final int EXPECT_OBJECT = 1;
+  private static final int EXPECT_KEY_OR_END = 2;
+  private static final int EXPECT_KEY = 3;
+  private static final int IN_KEY = 4;
+  private static final int EXPECT_COLON = 5;
+  private static final int EXPECT_VALUE = 6;
+  private static final int IN_NUMBER = 7;
+  private static final int IN_STRING = 8;
+  private static final int IN_LITERAL = 9;
+  private static final int EXPECT_COMMA_OR_END = 10;
+  // between two rides, a comma or ']' in an array, the next '{' or the end in ndjson
+  private static final int AFTER_OBJECT = 11;
+  private static final int EXPECT_OBJECT_IN_ARRAY = 12;
+  private static final int DONE = 13;
+  private static final int ERROR = 14;
+  private static final int TOO_MANY = 15;
+
+  private final int maxItems;
+  private final byte[] readBuffer = new byte[4096];
+  private final byte[] key = new byte[MAX_KEY_LENGTH];
+  private final int[] values = new int[KEYS.length];
+
+  private int state;
+  private boolean array;
+  private int keyLength;
+  private int field;
+  private boolean escaped;
+  private boolean negative;
+  private int digits;
+  private int value;
+  private int seenFields;
+
+  private int itemCount;
+  private boolean[] valid = new boolean[INITIAL_CAPACITY];
+  private int recordCount;
+  private byte[] records = new byte[INITIAL_CAPACITY * LiftRideRecordCodec.RECORD_SIZE];
+
+  public LiftRideBatchParser(int maxItems) {
+    this.maxItems = maxItems;
+  }
+
+  public void reset() {
+    state = START;
+    itemCount = 0;
+    recordCount = 0;
+  }
+
+  public boolean parse(InputStream inputStream) throws IOException {
+    reset();
+    int read;
+    while ((read = inputStream.read(readBuffer)) != -1) {
+      if (!feed(readBuffer, 0, read)) {
+        return false;
+      }
+    }
+    return isComplete();
+  }
+
+  public boolean feed(byte[] buffer, int offset, int length) {
+    int end = offset + length;
+    for (int i = offset; i < end && state < ERROR; i++) {
+      accept(buffer[i]);
+    }
+    return state < ERROR;
+  }
+
+  /*
+  a whole array, or at least one ride of ndjson, has been read
+   */
+  public boolean isComplete() {
+    return state == DONE || (!array && state == AFTER_OBJECT);
+  }
+
+  public boolean isTooLarge() {
+    return state == TOO_MANY;
+  }
+
+  public int getItemCount() {
+    return itemCount;
+  }
+
+  public boolean isValid(int item) {
+    return valid[item];
+  }
+
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /*
+  the valid rides packed back to back, a new array the caller may hand to a transport
+   */
+  public byte[] copyRecords() {
+    return Arrays.copyOf(records, recordCount * LiftRideRecordCodec.RECORD_SIZE);
+  }
+
+  private void accept(byte b) {
+    switch (state) {
+      case START:
+        if (b == '[') {
+          array = true;
+          state = EXPECT_OBJECT_IN_ARRAY;
+        } else if (b == '{') {
+          array = false;
+          startObject();
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case EXPECT_OBJECT_IN_ARRAY:
+        if (b == '{') {
+          startObject();
+        } else if (b == ']' && itemCount == 0) {
+          state = DONE;
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case EXPECT_OBJECT:
+        if (b == '{') {
+          startObject();
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case EXPECT_KEY_OR_END:
+      case EXPECT_KEY:
+        if (b == '"') {
+          keyLength = 0;
+          escaped = false;
+          state = IN_KEY;
+        } else if (b == '}' && state == EXPECT_KEY_OR_END) {
+          endObject();
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case IN_KEY:
+        if (escaped) {
+          escaped = false;
+          keyLength = MAX_KEY_LENGTH + 1;
+        } else if (b == '\\') {
+          escaped = true;
+        } else if (b == '"') {
+          field = fieldOf();
+          state = EXPECT_COLON;
+        } else if (keyLength < MAX_KEY_LENGTH) {
+          key[keyLength++] = b;
+        } else {
+          // too long to be a field we care about
+          keyLength = MAX_KEY_LENGTH + 1;
+        }
+        break;
+      case EXPECT_COLON:
+        if (b == ':') {
+          state = EXPECT_VALUE;
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case EXPECT_VALUE:
+        if (b == '-' || (b >= '0' && b <= '9')) {
+          negative = b == '-';
+          digits = negative ? 0 : 1;
+          value = negative ? 0 : b - '0';
+          state = IN_NUMBER;
+        } else if (b == '"' && field == OTHER_FIELD) {
+          escaped = false;
+          state = IN_STRING;
+        } else if ((b == 't' || b == 'f' || b == 'n') && field == OTHER_FIELD) {
+          state = IN_LITERAL;
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case IN_NUMBER:
+        if (b >= '0' && b <= '9') {
+          if (++digits > MAX_DIGITS && field != OTHER_FIELD) {
+            state = ERROR;
+          } else {
+            value = value * 10 + (b - '0');
+          }
+        } else if (field == OTHER_FIELD && (b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-')) {
+          // fractions and exponents are only allowed in fields we skip
+        } else {
+          if (digits == 0) {
+            state = ERROR;
+          } else {
+            storeNumber();
+            state = EXPECT_COMMA_OR_END;
+            accept(b);
+          }
+        }
+        break;
+      case IN_STRING:
+        if (escaped) {
+          escaped = false;
+        } else if (b == '\\') {
+          escaped = true;
+        } else if (b == '"') {
+          state = EXPECT_COMMA_OR_END;
+        }
+        break;
+      case IN_LITERAL:
+        if (b >= 'a' && b <= 'z') {
+          break;
+        }
+        state = EXPECT_COMMA_OR_END;
+        accept(b);
+        break;
+      case EXPECT_COMMA_OR_END:
+        if (b == ',') {
+          state = EXPECT_KEY;
+        } else if (b == '}') {
+          endObject();
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case AFTER_OBJECT:
+        if (array && b == ',') {
+          state = EXPECT_OBJECT;
+        } else if (array && b == ']') {
+          state = DONE;
+        } else if (!array && b == '{') {
+          startObject();
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case DONE:
+        if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void startObject() {
+    if (itemCount == maxItems) {
+      state = TOO_MANY;
+      return;
+    }
+    seenFields = 0;
+    state = EXPECT_KEY_OR_END;
+  }
+
+  private void endObject() {
+    if (itemCount == valid.length) {
+      valid = Arrays.copyOf(valid, valid.length * 2);
+    }
+    boolean isValid = seenFields == ALL_FIELDS
+        && SkierUrlPath.isValid(values[RESORT_ID], values[SEASON_ID], values[DAY_ID], values[SKIER_ID])
+        && SkierServlet.isPostValid(values[LIFT_ID], values[TIME]);
+    valid[itemCount++] = isValid;
+    if (isValid) {
+      int base = recordCount * LiftRideRecordCodec.RECORD_SIZE;
+      if (base == records.length) {
+        records = Arrays.copyOf(records, records.length * 2);
+      }
+      LiftRideRecordCodec.encode(ByteBuffer.wrap(records, base, LiftRideRecordCodec.RECORD_SIZE),
+          values[SKIER_ID], values[RESORT_ID], values[LIFT_ID], values[SEASON_ID], values[DAY_ID],
+          values[TIME]);
+      recordCount += 1;
+    }
+    state = AFTER_OBJECT;
+  }
+
+  private void storeNumber() {
+    if (field != OTHER_FIELD) {
+      values[field] = negative ? -value : value;
+      seenFields |= 1 << field;
+    }
+  }
+
+  private int fieldOf() {
+    for (int candidate = 0; candidate < KEYS.length; candidate++) {
+      if (matchesKey(KEYS[candidate])) {
+        return candidate;
+      }
+    }
+    return OTHER_FIELD;
+  }
+
+  private boolean matchesKey(byte[] expected) {
+    if (keyLength != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < keyLength; i++) {
+      if (key[i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+}
@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+public class LiftRideBodyParser {
+
+  /*
+  scans a POST body like {"time": 217, "liftID": 21} byte by byte and keeps the two
+  fields as ints, other fields with string, number or literal values are skipped,
+  bytes can be fed in chunks so the same parser works for blocking and async reads
+   */
+
+  private static final byte[] TIME_KEY = {'t', 'i', 'm', 'e'};
+  private static final byte[] LIFT_ID_KEY = {'l', 'i', 'f', 't', 'I', 'D'};
+  private static final int MAX_KEY_LENGTH = 16;
+  private static final int MAX_DIGITS = 9;
+
+  private static final int EXPECT_OBJECT = 0;
+  private static final int EXPECT_KEY_OR_END = 1;
+  private static final int EXPECT_KEY = 2;
+  private static final int IN_KEY = 3;
+  private static final int EXPECT_COLON = 4;
+  private static final int EXPECT_VALUE = 5;
+  private static final int IN_NUMBER = 6;
+  private static final int IN_STRING = 7;
+  private static final int IN_LITERAL = 8;
+  private static final int EXPECT_COMMA_OR_END = 9;
+  private static final int DONE = 10;
+  private static final int ERROR = 11;
+
+  private static final int OTHER_FIELD = 0;
+  private static final int TIME_FIELD = 1;
+  private static final int LIFT_ID_FIELD = 2;
+
+  private final byte[] readBuffer = new byte[256];
+  private final byte[] key = new byte[MAX_KEY_LENGTH];
+
+  private int state;
+  private int keyLength;
+  private int field;
+  private boolean escaped;
+  private boolean negative;
+  private int digits;
+  private int value;
+
+  private boolean hasTime;
+  private boolean hasLiftID;
+  private int time;
+  private int liftID;
+
+  public void reset() {
+    state = EXPECT_OBJECT;
+    hasTime = false;
+    hasLiftID = false;
+  }
+
+  public boolean parse(InputStream inputStream) throws IOException {
+    reset();
+    int read;
+    while ((read = inputStream.read(readBuffer)) != -1) {
+      if (!feed(readBuffer, 0, read)) {
+        return false;
+      }
+    }
+    return isComplete();
+  }
+
+  public boolean feed(byte[] buffer, int offset, int length) {
+    int end = offset + length;
+    for (int i = offset; i < end && state != ERROR; i++) {
+      accept(buffer[i]);
+    }
+    return state != ERROR;
+  }
+
+  public boolean isComplete() {
+    return state == DONE && hasTime && hasLiftID;
+  }
+
+  public int getTime() {
+    return time;
+  }
+
+  public int getLiftID() {
+    return liftID;
+  }
+
+  private void accept(byte b) {
+    switch (state) {
+      case EXPECT_OBJECT:
+        if (b == '{') {
+          state = EXPECT_KEY_OR_END;
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case EXPECT_KEY_OR_END:
+      case EXPECT_KEY:
+        if (b == '"') {
+          keyLength = 0;
+          escaped = false;
+          state = IN_KEY;
+        } else if (b == '}' && state == EXPECT_KEY_OR_END) {
+          state = DONE;
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case IN_KEY:
+        if (escaped) {
+          escaped = false;
+          keyLength = MAX_KEY_LENGTH + 1;
+        } else if (b == '\\') {
+          escaped = true;
+        } else if (b == '"') {
+          field = fieldOf();
+          state = EXPECT_COLON;
+        } else if (keyLength < MAX_KEY_LENGTH) {
+          key[keyLength++] = b;
+        } else {
+          // too long to be a field we care about
+          keyLength = MAX_KEY_LENGTH + 1;
+        }
+        break;
+      case EXPECT_COLON:
+        if (b == ':') {
+          state = EXPECT_VALUE;
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case EXPECT_VALUE:
+        if (b == '-' || (b >= '0' && b <= '9')) {
+          negative = b == '-';
+          digits = negative ? 0 : 1;
+          value = negative ? 0 : b - '0';
+          state = IN_NUMBER;
+        } else if (b == '"' && field == OTHER_FIELD) {
+          escaped = false;
+          state = IN_STRING;
+        } else if ((b == 't' || b == 'f' || b == 'n') && field == OTHER_FIELD) {
+          state = IN_LITERAL;
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case IN_NUMBER:
+        if (b >= '0' && b <= '9') {
+          if (++digits > MAX_DIGITS && field != OTHER_FIELD) {
+            state = ERROR;
+          } else {
+            value = value * 10 + (b - '0');
+          }
+        } else if (field == OTHER_FIELD && (b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-')) {
+          // fractions and exponents are only allowed in fields we skip
+        } else {
+          if (digits == 0) {
+            state = ERROR;
+          } else {
+            storeNumber();
+            state = EXPECT_COMMA_OR_END;
+            accept(b);
+          }
+        }
+        break;
+      case IN_STRING:
+        if (escaped) {
+          escaped = false;
+        } else if (b == '\\') {
+          escaped = true;
+        } else if (b == '"') {
+          state = EXPECT_COMMA_OR_END;
+        }
+        break;
+      case IN_LITERAL:
+        if (b >= 'a' && b <= 'z') {
+          break;
+        }
+        state = EXPECT_COMMA_OR_END;
+        accept(b);
+        break;
+      case EXPECT_COMMA_OR_END:
+        if (b == ',') {
+          state = EXPECT_KEY;
+        } else if (b == '}') {
+          state = DONE;
+        } else if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      case DONE:
+        if (!isWhitespace(b)) {
+          state = ERROR;
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void storeNumber() {
+    int number = negative ? -value : value;
+    if (field == TIME_FIELD) {
+      time = number;
+      hasTime = true;
+    } else if (field == LIFT_ID_FIELD) {
+      liftID = number;
+      hasLiftID = true;
+    }
+  }
+
+  private int fieldOf() {
+    if (matchesKey(TIME_KEY)) {
+      return TIME_FIELD;
+    }
+    if (matchesKey(LIFT_ID_KEY)) {
+      return LIFT_ID_FIELD;
+    }
+    return OTHER_FIELD;
+  }
+
+  private boolean matchesKey(byte[] expected) {
+    if (keyLength != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < keyLength; i++) {
+      if (key[i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+}
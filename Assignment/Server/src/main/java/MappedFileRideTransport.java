@@ -0,0 +1,362 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import model.LiftRideRecord;
+import model.LiftRideRecordCodec;
+
+
+public class MappedFileRideTransport implements RidePublisher, RideSubscriber {
+
+  /*
+  a queue made of fixed size memory mapped segment files queue-00000000.dat,
+  queue-00000001.dat, ... in one directory, for a publisher and a subscriber running as
+  separate processes on the same machine without a broker
+
+  an entry is 32 bytes, a 4 byte marker, the 20 byte LiftRideRecordCodec record and the
+  8 byte rideID, so no entry straddles a page, the marker is written last with a
+  release store and read with an acquire load, so the subscriber never reads a half
+  written entry, the publisher forces the active segment every fsyncIntervalMillis
+
+  the subscriber reads on one thread and keeps its position in a mapped consumer.offset
+  file, a restarted subscriber continues after the last ride it handed over, segments it
+  has read to the end are deleted, when the handler throws the ride is handed over again
+  after a pause, the position never moves past a ride the handler has not taken
+
+  the publisher stamps every ride with a rideID the way RabbitMQProducer does, starting
+  at a random point, so a ride read twice is skipped by the RideLog while a queue
+  directory which is cleared and started again does not repeat the ids of the old one
+
+  the same class is copied into RabbitMQConsumer
+   */
+
+  private static final int ENTRY_MARKER = 0x51554532;
+  private static final int MARKER_SIZE = 4;
+  private static final int RIDE_ID_OFFSET = MARKER_SIZE + LiftRideRecordCodec.RECORD_SIZE;
+  private static final int ENTRY_SIZE = 32;
+  // the marker is always 4 byte aligned, so the ordered access modes are allowed
+  private static final VarHandle MARKER =
+      MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+  private static final String SEGMENT_PREFIX = "queue-";
+  private static final String SEGMENT_SUFFIX = ".dat";
+  private static final String OFFSET_FILE = "consumer.offset";
+  private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+  private static final long FIRST_RETRY_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long MAX_RETRY_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final Path directory;
+  private final int segmentSize;
+  private final long fsyncIntervalMillis;
+  private ScheduledExecutorService fsyncExecutor;
+
+  // publisher side, guarded by this
+  private int segmentIndex;
+  private MappedByteBuffer segment;
+  private final ByteBuffer encodeBuffer = ByteBuffer.allocate(LiftRideRecordCodec.RECORD_SIZE);
+  private boolean dirty;
+  private long nextRideID = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+  // the subscriber's consumer.offset, mapped once it exists
+  private MappedByteBuffer subscriberOffset;
+
+  private Thread readerThread;
+  private volatile boolean running = true;
+
+  public MappedFileRideTransport(Path directory, int segmentSize, long fsyncIntervalMillis) {
+    this.directory = directory;
+    // a segment always holds a whole number of entries
+    this.segmentSize = Math.max(ENTRY_SIZE, segmentSize - segmentSize % ENTRY_SIZE);
+    this.fsyncIntervalMillis = fsyncIntervalMillis;
+  }
+
+  /*
+  opens the queue for publishing, appends continue right after the last complete entry
+  of the newest segment
+   */
+  public synchronized void open() throws IOException {
+    Files.createDirectories(directory);
+    List<Path> segments = listSegments();
+    segmentIndex = segments.isEmpty() ? 0 : segmentIndexOf(segments.get(segments.size() - 1));
+    segment = mapSegment(segmentIndex);
+    int base = 0;
+    while (base + ENTRY_SIZE <= segment.limit() && segment.getInt(base) == ENTRY_MARKER) {
+      base += ENTRY_SIZE;
+    }
+    segment.position(base);
+
+    fsyncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "mapped-file-transport-fsync");
+      thread.setDaemon(true);
+      return thread;
+    });
+    fsyncExecutor.scheduleWithFixedDelay(this::force, fsyncIntervalMillis, fsyncIntervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public CompletableFuture<Void> publish(LiftRideRecord record) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    try {
+      append(record);
+      future.complete(null);
+    } catch (IOException | RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  @Override
+  public CompletableFuture<boolean[]> publishBatch(byte[] records, int count) {
+    CompletableFuture<boolean[]> future = new CompletableFuture<>();
+    boolean[] published = new boolean[count];
+    try {
+      appendBatch(records, count, published);
+      future.complete(published);
+    } catch (IOException | RuntimeException e) {
+      if (count > 0 && published[0]) {
+        // the rides before the failed one are in the file and will be read
+        AsyncLog.warn("rideBatchAppendFailed", "directory", directory, "error", e);
+        future.complete(published);
+      } else {
+        future.completeExceptionally(e);
+      }
+    }
+    return future;
+  }
+
+  private synchronized void append(LiftRideRecord record) throws IOException {
+    encodeBuffer.clear();
+    LiftRideRecordCodec.encode(encodeBuffer, record);
+    appendEntry(encodeBuffer.array(), 0);
+  }
+
+  private synchronized void appendBatch(byte[] records, int count, boolean[] published)
+      throws IOException {
+    // one lock for the whole batch, its rides stay together in the file
+    for (int i = 0; i < count; i++) {
+      appendEntry(records, i * LiftRideRecordCodec.RECORD_SIZE);
+      published[i] = true;
+    }
+  }
+
+  private void appendEntry(byte[] records, int from) throws IOException {
+    if (segment == null) {
+      throw new IllegalStateException("MappedFileRideTransport must be opened before publishing");
+    }
+    if (segment.remaining() < ENTRY_SIZE) {
+      // the full segment is made durable before the next one is started
+      segment.force();
+      segmentIndex += 1;
+      segment = mapSegment(segmentIndex);
+    }
+    int base = segment.position();
+    segment.position(base + MARKER_SIZE);
+    segment.put(records, from, LiftRideRecordCodec.RECORD_SIZE);
+    segment.putLong(base + RIDE_ID_OFFSET, nextRideID);
+    nextRideID = (nextRideID + 1) & Long.MAX_VALUE;
+    segment.position(base + ENTRY_SIZE);
+    // release, the record is in place before a reader can see the marker
+    MARKER.setRelease(segment, base, ENTRY_MARKER);
+    dirty = true;
+  }
+
+  public synchronized void force() {
+    if (segment != null && dirty) {
+      segment.force();
+      dirty = false;
+    }
+  }
+
+  /*
+  entries between the subscriber's saved position and the publisher's append position,
+  -1 before this side has been opened for publishing or no subscriber has started yet
+   */
+  @Override
+  public synchronized long getDepth() {
+    if (segment == null) {
+      return -1;
+    }
+    if (subscriberOffset == null) {
+      Path offsetPath = directory.resolve(OFFSET_FILE);
+      try {
+        if (!Files.exists(offsetPath) || Files.size(offsetPath) < Long.BYTES) {
+          return -1;
+        }
+        try (FileChannel channel = FileChannel.open(offsetPath, StandardOpenOption.READ)) {
+          subscriberOffset = channel.map(FileChannel.MapMode.READ_ONLY, 0, Long.BYTES);
+        }
+      } catch (IOException e) {
+        return -1;
+      }
+    }
+    long saved = subscriberOffset.getLong(0);
+    long entriesPerSegment = segmentSize / ENTRY_SIZE;
+    return (segmentIndex - (saved >>> 32)) * entriesPerSegment
+        + (segment.position() - (int) saved) / ENTRY_SIZE;
+  }
+
+  /*
+  rides are read and handed to the handler in file order on a single reader thread,
+  threads is accepted for the interface but a file has one read position
+   */
+  @Override
+  public synchronized void subscribe(RideHandler handler, int threads) throws IOException {
+    if (readerThread != null) {
+      throw new IllegalStateException("MappedFileRideTransport already has a subscriber");
+    }
+    Files.createDirectories(directory);
+    MappedByteBuffer offset;
+    try (FileChannel channel = FileChannel.open(directory.resolve(OFFSET_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      offset = channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+    }
+    readerThread = new Thread(() -> readLoop(handler, offset), "mapped-file-transport-reader");
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  private void readLoop(RideHandler handler, MappedByteBuffer offset) {
+    // segment index in the high half, position inside the segment in the low half
+    long saved = offset.getLong(0);
+    int readIndex = (int) (saved >>> 32);
+    int base = (int) saved;
+    try {
+      deleteSegmentsBefore(readIndex);
+      List<Path> segments = listSegments();
+      if (!segments.isEmpty() && !Files.exists(segmentPath(readIndex))) {
+        // no saved position in the existing files, start at the oldest one
+        readIndex = segmentIndexOf(segments.get(0));
+        base = 0;
+      }
+      MappedByteBuffer readSegment = null;
+      long retryParkNanos = FIRST_RETRY_PARK_NANOS;
+      while (true) {
+        if (readSegment == null) {
+          readSegment = openForRead(readIndex);
+        }
+        if (readSegment != null && base + ENTRY_SIZE <= readSegment.limit()
+            && (int) MARKER.getAcquire(readSegment, base) == ENTRY_MARKER) {
+          try {
+            // a reader restarted before saving its position hands the ride over again, with
+            // the same rideID
+            handler.onRide(readSegment, base + MARKER_SIZE,
+                readSegment.getLong(base + RIDE_ID_OFFSET), -1);
+            retryParkNanos = FIRST_RETRY_PARK_NANOS;
+          } catch (RuntimeException e) {
+            // the position stays on the ride, it is handed over again after a pause
+            AsyncLog.error("rideHandlerFailed", e, "transport", "file", "directory", directory,
+                "retryMillis", TimeUnit.NANOSECONDS.toMillis(retryParkNanos));
+            if (!running) {
+              offset.force();
+              return;
+            }
+            LockSupport.parkNanos(retryParkNanos);
+            retryParkNanos = Math.min(retryParkNanos * 2, MAX_RETRY_PARK_NANOS);
+            continue;
+          }
+          base += ENTRY_SIZE;
+          offset.putLong(0, ((long) readIndex << 32) | base);
+        } else if (readSegment != null && base + ENTRY_SIZE > readSegment.limit()
+            && Files.exists(segmentPath(readIndex + 1))) {
+          // the publisher moved on, nothing more will be written to this segment
+          Files.deleteIfExists(segmentPath(readIndex));
+          readIndex += 1;
+          base = 0;
+          readSegment = null;
+          offset.putLong(0, (long) readIndex << 32);
+        } else if (!running) {
+          offset.force();
+          return;
+        } else {
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+      }
+    } catch (IOException e) {
+      AsyncLog.error("rideReaderFailed", e, "directory", directory);
+    }
+  }
+
+  private MappedByteBuffer openForRead(int index) throws IOException {
+    Path path = segmentPath(index);
+    if (!Files.exists(path)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() < segmentSize) {
+        // the publisher has created the file but not mapped it to full size yet
+        return null;
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize);
+    }
+  }
+
+  private void deleteSegmentsBefore(int index) throws IOException {
+    for (Path path : listSegments()) {
+      if (segmentIndexOf(path) < index) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    if (fsyncExecutor != null) {
+      fsyncExecutor.shutdown();
+    }
+    force();
+    if (readerThread != null) {
+      try {
+        // the reader drains what is already in the files before it exits
+        readerThread.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private MappedByteBuffer mapSegment(int index) throws IOException {
+    try (FileChannel channel = FileChannel.open(segmentPath(index), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // the mapping stays valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+  }
+
+  private Path segmentPath(int index) {
+    return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+  }
+
+  private int segmentIndexOf(Path path) {
+    String name = path.getFileName().toString();
+    return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private List<Path> listSegments() throws IOException {
+    List<Path> segments = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+        SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path path : stream) {
+        segments.add(path);
+      }
+    }
+    // zero padded names sort in segment order
+    Collections.sort(segments);
+    return segments;
+  }
+}
@@ -0,0 +1,186 @@
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+
+public final class Metrics {
+
+  /*
+  process wide registry of counters, gauges and latency histograms, written out in the
+  prometheus text format by MetricsServlet, in the consumer by SkierQueryServer
+
+    counter    a LongAdder, or a LongSupplier over a count kept elsewhere
+    gauge      a LongSupplier read when the metrics are written
+    histogram  fixed buckets of 50 us * 2^i up to about 13 s, a LongAdder per bucket
+
+  recording is an add to a LongAdder, no lock and no allocation, so a hot path may keep
+  the counter or histogram in a static final field and record on every request, the
+  cost of summing the adders is paid by the scrape
+
+  labels are given as name, value pairs, a family is registered once per name and every
+  label combination is a series of it
+
+  the same class is copied into RabbitMQConsumer
+   */
+
+  private static final String COUNTER = "counter";
+  private static final String GAUGE = "gauge";
+  private static final String HISTOGRAM = "histogram";
+
+  private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+  private Metrics() {
+  }
+
+  /*
+  the counter of that name and labels, the same LongAdder on every call
+   */
+  public static LongAdder counter(String name, String help, String... labels) {
+    return (LongAdder) family(name, help, COUNTER).series
+        .computeIfAbsent(formatLabels(labels), ignored -> new LongAdder());
+  }
+
+  /*
+  a count kept by someone else, e.g. an AsyncLog counter or AdmissionController
+   */
+  public static void counter(String name, String help, LongSupplier value, String... labels) {
+    family(name, help, COUNTER).series.put(formatLabels(labels), value);
+  }
+
+  /*
+  replaces an earlier gauge of the same labels, so a reinitialised servlet reports its
+  new transport and not the closed one
+   */
+  public static void gauge(String name, String help, LongSupplier value, String... labels) {
+    family(name, help, GAUGE).series.put(formatLabels(labels), value);
+  }
+
+  public static Histogram histogram(String name, String help, String... labels) {
+    return (Histogram) family(name, help, HISTOGRAM).series
+        .computeIfAbsent(formatLabels(labels), ignored -> new Histogram());
+  }
+
+  private static Family family(String name, String help, String type) {
+    Family family = families.computeIfAbsent(name, ignored -> new Family(help, type));
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+    }
+    return family;
+  }
+
+  public static void write(StringBuilder out) {
+    for (Map.Entry<String, Family> entry : families.entrySet()) {
+      String name = entry.getKey();
+      Family family = entry.getValue();
+      out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+      out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+      for (Map.Entry<String, Object> series : family.series.entrySet()) {
+        String labels = series.getKey();
+        Object value = series.getValue();
+        if (value instanceof Histogram) {
+          ((Histogram) value).write(out, name, labels);
+        } else {
+          long sample = value instanceof LongAdder
+              ? ((LongAdder) value).sum() : ((LongSupplier) value).getAsLong();
+          out.append(name).append(labels).append(' ').append(sample).append('\n');
+        }
+      }
+    }
+  }
+
+  private static String formatLabels(String[] labels) {
+    if (labels.length == 0) {
+      return "";
+    }
+    StringBuilder formatted = new StringBuilder("{");
+    for (int i = 0; i + 1 < labels.length; i += 2) {
+      formatted.append(i == 0 ? "" : ",").append(labels[i]).append("=\"");
+      String value = labels[i + 1];
+      for (int c = 0; c < value.length(); c++) {
+        char character = value.charAt(c);
+        if (character == '"' || character == '\\') {
+          formatted.append('\\');
+        }
+        formatted.append(character == '\n' ? ' ' : character);
+      }
+      formatted.append('"');
+    }
+    return formatted.append('}').toString();
+  }
+
+  private static final class Family {
+    private final String help;
+    private final String type;
+    // by formatted labels, LongAdder, LongSupplier or Histogram
+    private final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+    private Family(String help, String type) {
+      this.help = help;
+      this.type = type;
+    }
+  }
+
+  /*
+  a latency histogram, observations go to the first bucket whose upper bound is not
+  below them, the buckets are made cumulative only when written
+   */
+  public static final class Histogram {
+    private static final long FIRST_BOUND_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    // 50 us, 100 us, 200 us, ... 13.1 s, then +Inf
+    private static final int BOUNDED_BUCKETS = 19;
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final String[] BOUNDS = new String[BOUNDED_BUCKETS + 1];
+
+    static {
+      for (int i = 0; i < BOUNDED_BUCKETS; i++) {
+        BOUNDS[i] = BigDecimal.valueOf(FIRST_BOUND_NANOS << i, 9).stripTrailingZeros().toPlainString();
+      }
+      BOUNDS[BOUNDED_BUCKETS] = "+Inf";
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDED_BUCKETS + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    private Histogram() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    public void observeNanos(long nanos) {
+      buckets[bucketOf(nanos)].increment();
+      sumNanos.add(Math.max(0, nanos));
+    }
+
+    public void observeSince(long startNanos) {
+      observeNanos(System.nanoTime() - startNanos);
+    }
+
+    static int bucketOf(long nanos) {
+      if (nanos <= FIRST_BOUND_NANOS) {
+        return 0;
+      }
+      // the bound of bucket i is FIRST_BOUND_NANOS << i
+      int bucket = 64 - Long.numberOfLeadingZeros((nanos - 1) / FIRST_BOUND_NANOS);
+      return Math.min(bucket, BOUNDED_BUCKETS);
+    }
+
+    private void write(StringBuilder out, String name, String labels) {
+      // le goes in front of the other labels
+      String otherLabels = labels.isEmpty() ? "" : "," + labels.substring(1, labels.length() - 1);
+      long cumulative = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        cumulative += buckets[i].sum();
+        out.append(name).append("_bucket{le=\"").append(BOUNDS[i]).append('"').append(otherLabels)
+            .append("} ").append(cumulative).append('\n');
+      }
+      out.append(name).append("_sum").append(labels).append(' ')
+          .append(String.format(Locale.ROOT, "%.9f", sumNanos.sum() / NANOS_PER_SECOND)).append('\n');
+      out.append(name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+    }
+  }
+}
@@ -0,0 +1,33 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+@WebServlet(name = "MetricsServlet", value = "/metrics")
+public class MetricsServlet extends HttpServlet {
+
+  /*
+  GET /metrics, everything in the Metrics registry in the prometheus text format, for a
+  prometheus scrape, see QueueMetricsServlet for a json snapshot of the write path
+
+  SkierServlet registers its gauges when it is initialised, the per request counters and
+  histograms are there from the first request on
+   */
+
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    StringBuilder metrics = new StringBuilder(8192);
+    Metrics.write(metrics);
+    byte[] body = metrics.toString().getBytes(StandardCharsets.UTF_8);
+    response.setContentType(CONTENT_TYPE);
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+}
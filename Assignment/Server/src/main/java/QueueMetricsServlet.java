@@ -0,0 +1,62 @@
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+@WebServlet(name = "QueueMetricsServlet", value = "/metrics/queue")
+public class QueueMetricsServlet extends HttpServlet {
+
+  /*
+  GET /metrics/queue, a json snapshot of the write path for dashboards and load tests
+
+    depth            rides the transport accepted but has not handed on, -1 if unknown
+    brokerDepth      ready messages in the rabbitmq queue, only with the rabbitmq transport
+    inFlight, limit  publishes in flight and the current adaptive concurrency limit
+    admitted, rejected, failed   counts since start, rejected POSTs got a 503
+
+  SkierServlet publishes its transport and admission controller as context attributes,
+  it is loaded on startup so they are there before the first request
+   */
+
+  private final Gson gson = new Gson();
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    RidePublisher transport =
+        (RidePublisher) getServletContext().getAttribute(SkierServlet.TRANSPORT_ATTRIBUTE);
+    AdmissionController admission =
+        (AdmissionController) getServletContext().getAttribute(SkierServlet.ADMISSION_ATTRIBUTE);
+    if (transport == null || admission == null) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "SkierServlet is not initialised");
+      return;
+    }
+
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("transport", transport.getClass().getSimpleName());
+    metrics.put("depth", transport.getDepth());
+    if (transport instanceof RabbitMQProducer) {
+      metrics.put("brokerDepth", ((RabbitMQProducer) transport).getBrokerQueueDepth());
+    }
+    metrics.put("inFlight", admission.getInFlight());
+    metrics.put("limit", admission.getLimit());
+    metrics.put("maxInFlight", admission.getMaxInFlight());
+    metrics.put("smoothedPublishLatencyMillis", admission.getSmoothedLatencyMillis());
+    metrics.put("admitted", admission.getAdmittedCount());
+    metrics.put("rejected", admission.getRejectedCount());
+    metrics.put("failed", admission.getFailedCount());
+
+    byte[] body = gson.toJson(metrics).getBytes(StandardCharsets.UTF_8);
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+}
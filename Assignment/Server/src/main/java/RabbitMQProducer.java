@@ -1,46 +1,415 @@
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import model.LiftRideRecord;
+import model.LiftRideRecordCodec;
 
 
-public class RabbitMQProducer {
+public class RabbitMQProducer implements RidePublisher {
+
+  /*
+  records are put on a bounded in-memory ring buffer and a single background
+  thread publishes them in batches on one confirm-enabled channel, every record
+  gets a future which completes when the broker confirms (or nacks) it
+
+  a batch goes out as messages of up to MAX_RECORDS_PER_MESSAGE packed records, the
+  consumer applies every record of a message before it acks the message
+
+  every ride gets a rideID, the message id is the rideID of its first ride and the
+  others follow on, the consumer skips a redelivered ride by it, the ids start at a
+  random point so they do not repeat across publishers and restarts
+
+  with shardCount > 1 each ride is routed by SkierShard to one of the queues
+  queueName.0 .. queueName.(shardCount - 1), a batch is split per shard first, rides go
+  through the default exchange so the broker needs no consistent hash exchange plugin
+   */
+
+  static final int MAX_RECORDS_PER_MESSAGE = 1000;
+
+  private static final LongAdder MESSAGES_PUBLISHED = Metrics.counter(
+      "rabbitmq_messages_published_total", "Messages handed to basicPublish");
+  private static final LongAdder MESSAGES_ACKED = Metrics.counter("rabbitmq_confirms_total",
+      "Published messages the broker confirmed", "result", "ack");
+  private static final LongAdder MESSAGES_NACKED = Metrics.counter("rabbitmq_confirms_total",
+      "Published messages the broker confirmed", "result", "nack");
+  private static final LongAdder BUFFER_FULL = Metrics.counter("rabbitmq_publish_buffer_full_total",
+      "Publishes refused because the publish buffer was full");
+  private static final LongAdder ENCODE_FAILED = Metrics.counter("rabbitmq_publish_encode_failures_total",
+      "Records which could not be encoded, failed without being published");
+  private static final Metrics.Histogram BATCH_PUBLISH_TIME = Metrics.histogram(
+      "rabbitmq_publish_batch_duration_seconds", "Time the publisher thread spends on one batch");
+  private static final Metrics.Histogram BUFFER_WAIT_TIME = Metrics.histogram(
+      "rabbitmq_publish_buffer_wait_seconds", "Time from publish until the publisher thread took the message");
+
   private String queue_name;
   private String host;
+  private final int shardCount;
+  private final String[] shardQueueNames;
   public ConnectionFactory factory;
 
+  private final int batchSize;
+  private final long flushIntervalMillis;
+  private final BlockingQueue<PendingRecord> ringBuffer;
+  private final ConcurrentNavigableMap<Long, CompletableFuture<Void>> unconfirmed =
+      new ConcurrentSkipListMap<>();
+  // only touched by the publisher thread, the client has written the body once basicPublish returns
+  private final ByteBuffer encodeBuffer = ByteBuffer.allocate(LiftRideRecordCodec.RECORD_SIZE);
+
+  private Connection connection;
+  private Channel channel;
+  // queue depth is asked on its own channel, a channel must not run an rpc while publishing
+  private Channel metricsChannel;
+  private Thread publisherThread;
+  private volatile boolean running;
+  // only touched by the publisher thread
+  private long nextRideID = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+
   public RabbitMQProducer (String queueName, String rabbitMQHost ){
+    this(queueName, rabbitMQHost, 8192, 100, 5);
+  }
+
+  public RabbitMQProducer(String queueName, String rabbitMQHost, int bufferCapacity,
+      int batchSize, long flushIntervalMillis) {
+    this(queueName, rabbitMQHost, bufferCapacity, batchSize, flushIntervalMillis, 1);
+  }
+
+  public RabbitMQProducer(String queueName, String rabbitMQHost, int bufferCapacity,
+      int batchSize, long flushIntervalMillis, int shardCount) {
+    if (shardCount < 1) {
+      throw new IllegalArgumentException("shardCount must be at least 1: " + shardCount);
+    }
     this.queue_name = queueName;
     this.host = rabbitMQHost;
+    this.shardCount = shardCount;
+    this.shardQueueNames = new String[shardCount];
+    for (int shard = 0; shard < shardCount; shard++) {
+      shardQueueNames[shard] = SkierShard.queueName(queueName, shard, shardCount);
+    }
+    this.ringBuffer = new ArrayBlockingQueue<>(bufferCapacity);
+    this.batchSize = batchSize;
+    this.flushIntervalMillis = flushIntervalMillis;
   }
 
-  public void init(){
+  public void init() throws Exception {
     factory = new ConnectionFactory();
     factory.setHost(host);
+    connection = factory.newConnection();
+    channel = connection.createChannel();
+    for (String shardQueueName : shardQueueNames) {
+      channel.queueDeclare(shardQueueName, false, false, false, null);
+    }
+    channel.confirmSelect();
+    channel.addConfirmListener(new ConfirmListener() {
+      @Override
+      public void handleAck(long deliveryTag, boolean multiple) {
+        confirm(deliveryTag, multiple, null);
+      }
+
+      @Override
+      public void handleNack(long deliveryTag, boolean multiple) {
+        confirm(deliveryTag, multiple, new IOException("Message nacked by broker"));
+      }
+    });
+    channel.addShutdownListener(cause -> failUnconfirmed(cause));
+    metricsChannel = connection.createChannel();
+
+    running = true;
+    publisherThread = new Thread(this::publishLoop, "rabbitmq-batch-publisher");
+    publisherThread.setDaemon(true);
+    publisherThread.start();
   }
 
 
-   public void publishLiftRecordToQueue(LiftRideRecord record) throws Exception {
+  @Override
+  public CompletableFuture<Void> publish(LiftRideRecord record) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    if (!running) {
+      future.completeExceptionally(new IllegalStateException("Producer is not running"));
+    } else if (!ringBuffer.offer(new PendingRecord(record, future))) {
+      // never block the caller, a full buffer means the broker is not keeping up
+      BUFFER_FULL.increment();
+      future.completeExceptionally(new IllegalStateException("Publish buffer is full"));
+    }
+    return future;
+  }
 
-    try (Connection connection = factory.newConnection();Channel channel = connection.createChannel()) {
-      channel.queueDeclare(queue_name, false, false, false, null);
-      channel.basicPublish("", queue_name, null, record.toString().getBytes());
-      System.out.println(" Sent " + record);
+  /*
+  every message is confirmed on its own, a ride is flagged published when the message
+  it went out in was confirmed, so one nacked message does not fail the others
+   */
+  @Override
+  public CompletableFuture<boolean[]> publishBatch(byte[] records, int count) {
+    boolean[] published = new boolean[count];
+    List<CompletableFuture<Void>> settled = new ArrayList<>();
+    if (shardCount == 1) {
+      publishChunks(records, count, 0, null, published, settled);
+    } else {
+      // split the batch per shard, the rides of a shard keep their order in the body
+      ByteBuffer buffer = ByteBuffer.wrap(records);
+      int[] shardOf = new int[count];
+      int[] shardSize = new int[shardCount];
+      for (int i = 0; i < count; i++) {
+        shardOf[i] = SkierShard.of(LiftRideRecordCodec.getSkierID(buffer, i * LiftRideRecordCodec.RECORD_SIZE),
+            shardCount);
+        shardSize[shardOf[i]] += 1;
+      }
+      byte[][] shardRecords = new byte[shardCount][];
+      // the position in records of every ride of a shard
+      int[][] shardRides = new int[shardCount][];
+      for (int shard = 0; shard < shardCount; shard++) {
+        shardRecords[shard] = new byte[shardSize[shard] * LiftRideRecordCodec.RECORD_SIZE];
+        shardRides[shard] = new int[shardSize[shard]];
+      }
+      int[] filled = new int[shardCount];
+      for (int i = 0; i < count; i++) {
+        int shard = shardOf[i];
+        shardRides[shard][filled[shard]] = i;
+        System.arraycopy(records, i * LiftRideRecordCodec.RECORD_SIZE, shardRecords[shard],
+            filled[shard]++ * LiftRideRecordCodec.RECORD_SIZE, LiftRideRecordCodec.RECORD_SIZE);
+      }
+      for (int shard = 0; shard < shardCount; shard++) {
+        if (shardSize[shard] > 0) {
+          publishChunks(shardRecords[shard], shardSize[shard], shard, shardRides[shard], published,
+              settled);
+        }
+      }
     }
-   }
+    // the flags are written before each settled stage completes, so they are visible here
+    return CompletableFuture.allOf(settled.toArray(new CompletableFuture<?>[0]))
+        .thenApply(ignored -> published);
+  }
 
-//  public static void main(String[] argv) throws Exception {
-//
-////    ConnectionFactory factory = new ConnectionFactory();
-////    factory.setHost("localhost");
-//    try (Connection connection = factory.newConnection();
-//        Channel channel = connection.createChannel()) {
-//
-//      channel.queueDeclare(queue_name, false, false, false, null);
-//      String message = "diuleilaomou";
-//      channel.basicPublish("", queue_name, null, message.getBytes());
-//      System.out.println(" [x] Sent '" + message + "'");
-//
-//    }
-//  }
-}
\ No newline at end of file
+  /*
+  rides[i] is the position in the batch of the i-th ride of records, null when they are
+  the same
+   */
+  private void publishChunks(byte[] records, int count, int shard, int[] rides,
+      boolean[] published, List<CompletableFuture<Void>> settled) {
+    for (int first = 0; first < count; first += MAX_RECORDS_PER_MESSAGE) {
+      int last = Math.min(count, first + MAX_RECORDS_PER_MESSAGE);
+      int from = first * LiftRideRecordCodec.RECORD_SIZE;
+      int to = last * LiftRideRecordCodec.RECORD_SIZE;
+      byte[] body = from == 0 && to == records.length ? records : Arrays.copyOfRange(records, from, to);
+      int firstRide = first;
+      settled.add(publishBody(body, shard).handle((ignored, failure) -> {
+        if (failure == null) {
+          for (int i = firstRide; i < last; i++) {
+            published[rides == null ? i : rides[i]] = true;
+          }
+        }
+        return null;
+      }));
+    }
+  }
+
+  private CompletableFuture<Void> publishBody(byte[] body, int shard) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    if (!running) {
+      future.completeExceptionally(new IllegalStateException("Producer is not running"));
+    } else if (!ringBuffer.offer(new PendingRecord(body, shard, future))) {
+      BUFFER_FULL.increment();
+      future.completeExceptionally(new IllegalStateException("Publish buffer is full"));
+    }
+    return future;
+  }
+
+  @Override
+  public long getDepth() {
+    // waiting for the publisher thread plus published but not yet confirmed
+    return ringBuffer.size() + unconfirmed.size();
+  }
+
+  /*
+  ready messages in the broker queues of all shards, an rpc per shard, -1 when the
+  broker cannot be asked
+   */
+  public synchronized long getBrokerQueueDepth() {
+    if (metricsChannel == null || !metricsChannel.isOpen()) {
+      return -1;
+    }
+    try {
+      long depth = 0;
+      for (String shardQueueName : shardQueueNames) {
+        depth += metricsChannel.messageCount(shardQueueName);
+      }
+      return depth;
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  private void publishLoop() {
+    List<PendingRecord> batch = new ArrayList<>(batchSize);
+    while (running || !ringBuffer.isEmpty()) {
+      try {
+        PendingRecord first = ringBuffer.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        // wait for a full batch, but never longer than the flush interval
+        long flushDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        while (batch.size() < batchSize) {
+          ringBuffer.drainTo(batch, batchSize - batch.size());
+          long remaining = flushDeadline - System.nanoTime();
+          if (batch.size() >= batchSize || remaining <= 0) {
+            break;
+          }
+          PendingRecord next = ringBuffer.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+        publishBatch(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void publishBatch(List<PendingRecord> batch) {
+    long startTime = System.nanoTime();
+    for (int i = 0; i < batch.size(); i++) {
+      PendingRecord pending = batch.get(i);
+      BUFFER_WAIT_TIME.observeNanos(startTime - pending.enqueueNanos);
+      byte[] body = pending.body;
+      String routingKey;
+      if (body != null) {
+        routingKey = shardQueueNames[pending.shard];
+      } else {
+        // a record which cannot be encoded fails on its own, before it takes a sequence number
+        try {
+          encodeBuffer.clear();
+          LiftRideRecordCodec.encode(encodeBuffer, pending.record);
+        } catch (RuntimeException e) {
+          ENCODE_FAILED.increment();
+          AsyncLog.warn("rideEncodeFailed", "skierID", pending.record.getSkierID(), "error", e);
+          pending.future.completeExceptionally(e);
+          continue;
+        }
+        body = encodeBuffer.array();
+        routingKey = shardQueueNames[SkierShard.of(pending.record.getSkierID(), shardCount)];
+      }
+      long sequenceNumber = channel.getNextPublishSeqNo();
+      unconfirmed.put(sequenceNumber, pending.future);
+      try {
+        channel.basicPublish("", routingKey,
+            messageProperties(body.length / LiftRideRecordCodec.RECORD_SIZE), body);
+        MESSAGES_PUBLISHED.increment();
+      } catch (Exception e) {
+        // the channel failed, nothing after it in the batch can be published on it
+        AsyncLog.warn("rabbitMQPublishFailed", "records", batch.size() - i, "error", e);
+        unconfirmed.remove(sequenceNumber);
+        for (int j = i; j < batch.size(); j++) {
+          batch.get(j).future.completeExceptionally(e);
+        }
+        break;
+      }
+    }
+    BATCH_PUBLISH_TIME.observeSince(startTime);
+  }
+
+  private AMQP.BasicProperties messageProperties(int records) {
+    long firstRideID = nextRideID;
+    nextRideID = (nextRideID + records) & Long.MAX_VALUE;
+    return new AMQP.BasicProperties.Builder().messageId(Long.toString(firstRideID)).build();
+  }
+
+  private void confirm(long deliveryTag, boolean multiple, Exception failure) {
+    LongAdder confirms = failure == null ? MESSAGES_ACKED : MESSAGES_NACKED;
+    if (multiple) {
+      Map<Long, CompletableFuture<Void>> confirmed = unconfirmed.headMap(deliveryTag, true);
+      for (CompletableFuture<Void> future : confirmed.values()) {
+        complete(future, failure);
+        confirms.increment();
+      }
+      confirmed.clear();
+    } else {
+      CompletableFuture<Void> future = unconfirmed.remove(deliveryTag);
+      if (future != null) {
+        complete(future, failure);
+        confirms.increment();
+      }
+    }
+  }
+
+  private void complete(CompletableFuture<Void> future, Exception failure) {
+    if (failure == null) {
+      future.complete(null);
+    } else {
+      future.completeExceptionally(failure);
+    }
+  }
+
+  private void failUnconfirmed(Exception cause) {
+    // confirms will never arrive for a closed channel
+    for (CompletableFuture<Void> future : unconfirmed.values()) {
+      future.completeExceptionally(cause);
+    }
+    unconfirmed.clear();
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    if (publisherThread != null) {
+      try {
+        // the loop drains whatever is still buffered before it exits
+        publisherThread.join(TimeUnit.SECONDS.toMillis(5));
+        channel.waitForConfirms(TimeUnit.SECONDS.toMillis(5));
+      } catch (Exception e) {
+        // fall through and close anyway
+      }
+    }
+    try {
+      if (connection != null) {
+        connection.close();
+      }
+    } catch (IOException e) {
+      connection.abort();
+    }
+  }
+
+  private static class PendingRecord {
+    private final LiftRideRecord record;
+    // an already packed batch of one shard, set instead of record
+    private final byte[] body;
+    private final int shard;
+    private final CompletableFuture<Void> future;
+    private final long enqueueNanos = System.nanoTime();
+
+    private PendingRecord(LiftRideRecord record, CompletableFuture<Void> future) {
+      this.record = record;
+      this.body = null;
+      this.shard = -1;
+      this.future = future;
+    }
+
+    private PendingRecord(byte[] body, int shard, CompletableFuture<Void> future) {
+      this.record = null;
+      this.body = body;
+      this.shard = shard;
+      this.future = future;
+    }
+  }
+}
@@ -1,51 +1,227 @@
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
-import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import model.BatchResult;
 import model.LiftRideRecord;
 import model.Message;
+import model.SkierUrlPath;
 import com.google.gson.Gson;
 
 
-@WebServlet(name = "SkierServlet", value = "/SkierServlet")
+@WebServlet(name = "SkierServlet", value = "/SkierServlet", asyncSupported = true)
 public class SkierServlet extends HttpServlet {
 
 
-  private Gson gson = new Gson();
-  private String rabbitMQName = "skiRideQueue";
-  private String rabbitMQHost = "localhost";
-//  ConnectionFactory factory = new ConnectionFactory();
+  // response bodies are built once, a request only copies the bytes to the output stream
+  static final byte[] MISSING_PARAMETERS = "missing parameters".getBytes(StandardCharsets.UTF_8);
+  static final byte[] INVALID_URL =
+      responseBody(HttpServletResponse.SC_BAD_REQUEST, "The request url is invalid");
+  static final byte[] INVALID_BODY =
+      responseBody(HttpServletResponse.SC_BAD_REQUEST, "The request body is invalid");
+  static final byte[] INVALID_BODY_WITH_EXCEPTION =
+      "400The request body is invalid with exception".getBytes(StandardCharsets.UTF_8);
+  static final byte[] PUBLISH_FAILED =
+      responseBody(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Fail to publish message to queue");
+  static final byte[] BATCH_TOO_LARGE =
+      responseBody(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Too many rides in one batch");
+  static final byte[] OVERLOADED =
+      responseBody(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many writes in flight, retry later");
+
+  static final String BATCH_PATH = "/batch";
+  // some rides of a batch were published and some were not
+  static final int SC_MULTI_STATUS = 207;
+
+  // how SkierServlet shares its transport and admission state with QueueMetricsServlet
+  static final String TRANSPORT_ATTRIBUTE = "SkierServlet.transport";
+  static final String ADMISSION_ATTRIBUTE = "SkierServlet.admission";
+  static final byte[] WRITE_SUCCESSFUL =
+      responseBody(HttpServletResponse.SC_OK, "Write successful");
+
+  // no line per ride, these are reported by AsyncLog every few seconds
+  static final LongAdder RIDES_PUBLISHED = AsyncLog.counter("rides.published");
+  static final LongAdder RIDES_PUBLISH_FAILED = AsyncLog.counter("rides.publishFailed");
+  static final LongAdder RIDES_SHED = AsyncLog.counter("rides.shed");
+
+  // recorded on every request, scraped from MetricsServlet
+  static final RequestMetrics GET_METRICS = new RequestMetrics("GET", "ride");
+  static final RequestMetrics POST_METRICS = new RequestMetrics("POST", "ride");
+  static final RequestMetrics BATCH_POST_METRICS = new RequestMetrics("POST", "batch");
+  static final LongAdder INVALID_URLS = Metrics.counter("skier_validation_failures_total",
+      "Requests or batch items which failed validation", "reason", "url");
+  static final LongAdder INVALID_BODIES = Metrics.counter("skier_validation_failures_total",
+      "Requests or batch items which failed validation", "reason", "body");
+  static final Metrics.Histogram PUBLISH_LATENCY = Metrics.histogram("skier_publish_duration_seconds",
+      "From handing rides to the transport until it accepted them", "route", "ride");
+  static final Metrics.Histogram BATCH_PUBLISH_LATENCY = Metrics.histogram(
+      "skier_publish_duration_seconds",
+      "From handing rides to the transport until it accepted them", "route", "batch");
+
+  static {
+    Metrics.counter("skier_rides_published_total", "Rides the transport accepted",
+        RIDES_PUBLISHED::sum);
+    Metrics.counter("skier_rides_publish_failed_total", "Admitted rides the transport failed",
+        RIDES_PUBLISH_FAILED::sum);
+    Metrics.counter("skier_rides_shed_total", "Rides answered 503 by admission control",
+        RIDES_SHED::sum);
+  }
+
+  private final Gson gson = new Gson();
+  private RidePublisher transport;
+  private AdmissionController admission;
+  private long publishConfirmTimeoutMillis;
+  private int maxBatchSize;
+  // opt-in servlet 3.1 non-blocking mode, the container thread is released right after the url check
+  private boolean asyncMode;
+
+  public SkierServlet() {
+  }
+
+  /*
+  for an embedded container which supplies the queue itself, see PipelineBenchmark in
+  Benchmarks
+   */
+  SkierServlet(RidePublisher transport) {
+    this.transport = transport;
+  }
+
+  @Override
+  public void init() throws ServletException {
+    super.init();
+
+    AsyncLog.configure(getInitParameter("logLevel"), getInitParameter("logSampleRate"));
+    publishConfirmTimeoutMillis = getIntInitParameter("publishConfirmTimeoutMillis", 5000);
+    asyncMode = Boolean.parseBoolean(getInitParameter("asyncMode"));
+    maxBatchSize = getIntInitParameter("maxBatchSize", 1000);
+    admission = new AdmissionController(getIntInitParameter("initialConcurrencyLimit", 64),
+        getIntInitParameter("minConcurrencyLimit", 8),
+        getIntInitParameter("maxInFlight", 1024));
+    if (transport == null) {
+      transport = createTransport();
+    }
+    getServletContext().setAttribute(TRANSPORT_ATTRIBUTE, transport);
+    getServletContext().setAttribute(ADMISSION_ATTRIBUTE, admission);
+    registerGauges(transport, admission);
+    AsyncLog.info("skierServletStarted", "transport", transport.getClass().getSimpleName(),
+        "asyncMode", asyncMode);
+  }
+
+  /*
+  the transport init-param picks where rides go
+    rabbitmq  the broker at rabbitMQHost, queue queueName (default), split into
+              shardCount queues by skierID, see SkierShard
+    file      memory mapped segment files in transportDirectory, read by a consumer process
+
+  the in-JVM RingBufferRideTransport is not in the war, nothing there subscribes to it,
+  PipelineBenchmark in Benchmarks passes one to the constructor and subscribes itself
+   */
+  private RidePublisher createTransport() throws ServletException {
+    String transportName = getStringInitParameter("transport", "rabbitmq");
+    switch (transportName) {
+      case "rabbitmq": {
+        String rabbitMQHost = getStringInitParameter("rabbitMQHost", "localhost");
+        RabbitMQProducer producer = new RabbitMQProducer(
+            getStringInitParameter("queueName", "skiRideQueue"), rabbitMQHost,
+            getIntInitParameter("publishBufferCapacity", 8192),
+            getIntInitParameter("publishBatchSize", 100),
+            getIntInitParameter("publishFlushIntervalMillis", 5),
+            getIntInitParameter("shardCount", 1));
+        try {
+          producer.init();
+        } catch (Exception e) {
+          throw new ServletException("Fail to connect to rabbitmq at " + rabbitMQHost, e);
+        }
+        return producer;
+      }
+      case "file": {
+        String transportDirectory = getStringInitParameter("transportDirectory", "ride-queue");
+        MappedFileRideTransport fileTransport = new MappedFileRideTransport(
+            Paths.get(transportDirectory), getIntInitParameter("segmentSize", 64 * 1024 * 1024),
+            getIntInitParameter("fsyncIntervalMillis", 1000));
+        try {
+          fileTransport.open();
+        } catch (IOException e) {
+          throw new ServletException("Fail to open ride queue in " + transportDirectory, e);
+        }
+        return fileTransport;
+      }
+      default:
+        throw new ServletException("Unknown transport " + transportName);
+    }
+  }
+
+  private static void registerGauges(RidePublisher transport, AdmissionController admission) {
+    Metrics.gauge("skier_transport_depth",
+        "Rides the transport accepted but has not handed on, -1 if unknown", transport::getDepth);
+    if (transport instanceof RabbitMQProducer) {
+      // an rpc to the broker per scrape
+      Metrics.gauge("skier_broker_queue_depth", "Ready messages in the rabbitmq queues, -1 if unknown",
+          ((RabbitMQProducer) transport)::getBrokerQueueDepth);
+    }
+    Metrics.gauge("skier_admission_in_flight", "Publishes in flight", admission::getInFlight);
+    Metrics.gauge("skier_admission_limit", "Current adaptive concurrency limit", admission::getLimit);
+  }
+
+  @Override
+  public void destroy() {
+    if (transport != null) {
+      transport.close();
+    }
+    super.destroy();
+  }
+
+  private int getIntInitParameter(String name, int defaultValue) {
+    String value = getInitParameter(name);
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+    return Integer.parseInt(value.trim());
+  }
+
+  private String getStringInitParameter(String name, String defaultValue) {
+    String value = getInitParameter(name);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return value.trim();
+  }
 
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse res)
       throws ServletException, IOException {
 
+    long startTime = System.nanoTime();
     res.setContentType("text/plain");
     String urlPath = req.getPathInfo();
 
     // check we have a URL!
     if (urlPath == null || urlPath.isEmpty()) {
+      INVALID_URLS.increment();
       res.setStatus(HttpServletResponse.SC_NOT_FOUND);
       res.getWriter().write("missing parameters");
+      GET_METRICS.record(HttpServletResponse.SC_NOT_FOUND, startTime);
       return;
     }
 
-    String[] urlParts = urlPath.split("/");
+    SkierUrlPath skierPath = new SkierUrlPath();
     // and now validate url path and return the response status code
     // (and maybe also some value if input is valid)
 
-    if (!isUrlValid(urlParts)) {
+    if (!skierPath.parse(urlPath)) {
+      INVALID_URLS.increment();
       res.setStatus(HttpServletResponse.SC_NOT_FOUND);
     } else {
       res.setStatus(HttpServletResponse.SC_OK);
-      // do any sophisticated processing with urlParts which contains all the url params
-      // TODO: process url params in `urlParts`
+      // do any sophisticated processing with skierPath which contains all the url params
+      // TODO: process url params in `skierPath`
       res.getWriter().write("It works!");
     }
+    GET_METRICS.record(res.getStatus(), startTime);
   }
 
 
@@ -54,131 +230,293 @@ public class SkierServlet extends HttpServlet {
   @Override
   protected void doPost(HttpServletRequest request, HttpServletResponse response)
       throws ServletException, IOException {
+    long startTime = System.nanoTime();
+    try {
+      handlePost(request, response);
+    } finally {
+      // an asyncMode post is recorded by AsyncLiftRidePost when it answers
+      if (!request.isAsyncStarted()) {
+        RequestMetrics metrics =
+            BATCH_PATH.equals(request.getPathInfo()) ? BATCH_POST_METRICS : POST_METRICS;
+        metrics.record(response.getStatus(), startTime);
+      }
+    }
+  }
 
-//    factory.setHost(rabbitMQHost);
+  private void handlePost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
 
-    PrintWriter printWriter = response.getWriter();
     response.setContentType("application/json");
     response.setCharacterEncoding("UTF-8");
     String urlPath = request.getPathInfo();
 
     // check we have a URL!
     if(urlPath == null || urlPath.isEmpty()){
-      response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-      response.getWriter().write("missing parameters");
+      INVALID_URLS.increment();
+      writeResponse(response, HttpServletResponse.SC_NOT_FOUND, MISSING_PARAMETERS);
+      return;
+    }
+
+    if (urlPath.equals(BATCH_PATH)) {
+      doBatchPost(request, response);
       return;
     }
 
-    String[] urlParts = urlPath.split("/");
+    SkierUrlPath skierPath = new SkierUrlPath();
 
     // check url is valid
-    if (!isUrlValid(urlParts)) {
-      Message message = new Message("The request url is invalid");
-      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-      printWriter.write(response.getStatus() + gson.toJson(message));
+    if (!skierPath.parse(urlPath)) {
+      INVALID_URLS.increment();
+      writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, INVALID_URL);
       return;
     }
 
+    if (asyncMode && request.isAsyncSupported()) {
+      AsyncContext asyncContext = request.startAsync();
+      asyncContext.setTimeout(publishConfirmTimeoutMillis);
+      ServletInputStream inputStream = request.getInputStream();
+      AsyncLiftRidePost asyncPost =
+          new AsyncLiftRidePost(asyncContext, inputStream, transport, admission, skierPath);
+      asyncContext.addListener(asyncPost);
+      inputStream.setReadListener(asyncPost);
+      return;
+    }
+
+    LiftRideRecord liftRideRecord;
     try {
-      StringBuilder stringBuilder = new StringBuilder();
-      String str;
-      while ((str = request.getReader().readLine()) != null) {
-        stringBuilder.append(str);
+      // decode time and liftID straight from the request bytes
+      LiftRideBodyParser bodyParser = new LiftRideBodyParser();
+      if (!bodyParser.parse(request.getInputStream())) {
+        INVALID_BODIES.increment();
+        writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, INVALID_BODY);
+        return;
       }
-      LiftRideRecord liftRideRecord = gson.fromJson(stringBuilder.toString(), LiftRideRecord.class);
+      liftRideRecord = new LiftRideRecord(skierPath.getSkierID(),
+          skierPath.getResortID(),
+          bodyParser.getLiftID(),
+          Integer.toString(skierPath.getSeasonID()),
+          Integer.toString(skierPath.getDayID()),
+          bodyParser.getTime());
+    } catch (IOException e) {
+      writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, INVALID_BODY_WITH_EXCEPTION);
+      return;
+    }
+
+    if (!isPostValid(liftRideRecord)) {
+      INVALID_BODIES.increment();
+      writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, INVALID_BODY);
+      return;
+    }
+
+    // shed the write before it adds to a queue which is already behind
+    if (!admission.tryAcquire()) {
+      RIDES_SHED.increment();
+      writeRetryLater(response, admission, OVERLOADED);
+      return;
+    }
 
-      if (!isPostValid(liftRideRecord)) {
-        Message message = new Message("The request body is invalid");
-        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-        printWriter.write(response.getStatus() + gson.toJson(message));
+    // send to the queue and only acknowledge the client once the queue accepted it
+    CompletableFuture<Void> published = publish(transport, admission, liftRideRecord);
+    try {
+      published.get(publishConfirmTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (Exception e) {
+      writeRetryLater(response, admission, PUBLISH_FAILED);
+      return;
+    }
+
+    writeResponse(response, HttpServletResponse.SC_OK, WRITE_SUCCESSFUL);
+  }
+
+  /*
+  POST /skiers/batch with a json array or newline delimited rides, see LiftRideBatchParser,
+  the valid rides are published together as one transport batch and the response has a
+  status per ride, 200 published, 400 invalid, 503 valid but not published, the response
+  itself is 200 when every valid ride was published, 503 when none was and 207 when only
+  some were, then only the rides answered 503 should be sent again
+
+  the body is read blocking, also in asyncMode
+   */
+  private void doBatchPost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    LiftRideBatchParser batchParser = new LiftRideBatchParser(maxBatchSize);
+    try {
+      if (!batchParser.parse(request.getInputStream())) {
+        if (batchParser.isTooLarge()) {
+          writeResponse(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, BATCH_TOO_LARGE);
+        } else {
+          INVALID_BODIES.increment();
+          writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, INVALID_BODY);
+        }
         return;
       }
-//
-//      try (Connection connection = factory.newConnection(); Channel channel = connection.createChannel()){
-//        channel.queueDeclare(rabbitMQName, false, false, false, null);
-//        channel.basicPublish("", rabbitMQName, null, liftRideRecord.toString().getBytes());
-//        System.out.println(" Sent " + liftRideRecord);
-//      } catch (Exception e) {
-//        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-//        printWriter.write(response.getStatus()  + "Fail to publish message to queue");
-//      }
-
-      response.setStatus(HttpServletResponse.SC_OK);
-      printWriter.write(response.getStatus() + gson.toJson(stringBuilder));
-    } catch ( Exception e) {
-      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-      printWriter.write(response.getStatus()  + "The request body is invalid with exception");
-    }
-  }
-
-
-  private boolean isUrlValid(String[] urlPath) {
-    // validate the request url path according to the API spec
-    // example valid path
-    // "/skier/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}"
-
-    int validUrlPathLength = 8;
-    int validUrlPathResortNumberPosition = 1;
-    int validUrlPathSeasonPosition = 2;
-    int validUrlPathSeasonIDPosition = 3;
-    int validUrlPathDaysPosition = 4;
-    int validUrlPathDaysIDPosition = 5;
-    int validUrlPathSkiersPosition = 6;
-    int validUrlPathSkiersIDPosition = 7;
-
-    String dayID = "1";
-    String seasonID = "2024";
-    int resortID_Max = 10;
-    int resortID_Min = 1;
-    int skierID_Max = 100000;
-    int skierID_Min = 1;
-
-    if (urlPath.length == validUrlPathLength) {
-      return urlPath[validUrlPathSeasonPosition].equals("seasons")
-          && urlPath[validUrlPathDaysPosition].equals("days")
-          && urlPath[validUrlPathSkiersPosition].equals("skiers")
-          && urlPath[validUrlPathResortNumberPosition]!= null
-          && isNumeric(urlPath[validUrlPathResortNumberPosition])
-          && urlPath[validUrlPathSeasonIDPosition]!= null
-          && isNumeric(urlPath[validUrlPathSeasonIDPosition])
-          && urlPath[validUrlPathDaysIDPosition]!= null
-          && isNumeric(urlPath[validUrlPathDaysIDPosition])
-          && urlPath[validUrlPathSkiersIDPosition]!= null
-          && isNumeric(urlPath[validUrlPathSkiersIDPosition])
-          && urlPath[validUrlPathDaysIDPosition].equals(dayID)
-          && urlPath[validUrlPathSeasonIDPosition].equals(seasonID)
-          && Integer.parseInt(urlPath[validUrlPathResortNumberPosition]) >= resortID_Min
-          && Integer.parseInt(urlPath[validUrlPathResortNumberPosition]) <= resortID_Max
-          && Integer.parseInt(urlPath[validUrlPathSkiersIDPosition]) >= skierID_Min
-          && Integer.parseInt(urlPath[validUrlPathSkiersIDPosition]) <= skierID_Max;
-    }
-    return false;
-  }
-
-  private boolean isPostValid(LiftRideRecord liftRideRecord) {
+    } catch (IOException e) {
+      writeResponse(response, HttpServletResponse.SC_BAD_REQUEST, INVALID_BODY_WITH_EXCEPTION);
+      return;
+    }
+
+    int accepted = batchParser.getRecordCount();
+    INVALID_BODIES.add(batchParser.getItemCount() - accepted);
+    if (accepted == 0) {
+      writeBatchResponse(response, batchParser, null, HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    // a batch is one publish as far as admission is concerned
+    if (!admission.tryAcquire()) {
+      RIDES_SHED.add(accepted);
+      response.setHeader("Retry-After", Long.toString(admission.getRetryAfterSeconds()));
+      writeBatchResponse(response, batchParser, null, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    }
+    long startTime = System.nanoTime();
+    CompletableFuture<boolean[]> published = transport.publishBatch(batchParser.copyRecords(), accepted);
+    published.whenComplete((flags, failure) -> {
+      long latency = System.nanoTime() - startTime;
+      int publishedCount = failure == null ? countPublished(flags) : 0;
+      admission.release(latency, publishedCount == accepted);
+      BATCH_PUBLISH_LATENCY.observeNanos(latency);
+      RIDES_PUBLISHED.add(publishedCount);
+      RIDES_PUBLISH_FAILED.add(accepted - publishedCount);
+    });
+    boolean[] flags;
+    try {
+      flags = published.get(publishConfirmTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (Exception e) {
+      response.setHeader("Retry-After", Long.toString(admission.getRetryAfterSeconds()));
+      writeBatchResponse(response, batchParser, null, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    }
+    int publishedCount = countPublished(flags);
+    if (publishedCount == accepted) {
+      writeBatchResponse(response, batchParser, flags, HttpServletResponse.SC_OK);
+      return;
+    }
+    response.setHeader("Retry-After", Long.toString(admission.getRetryAfterSeconds()));
+    writeBatchResponse(response, batchParser, flags,
+        publishedCount == 0 ? HttpServletResponse.SC_SERVICE_UNAVAILABLE : SC_MULTI_STATUS);
+  }
+
+  private static int countPublished(boolean[] flags) {
+    int published = 0;
+    for (boolean flag : flags) {
+      published += flag ? 1 : 0;
+    }
+    return published;
+  }
+
+  /*
+  published has a flag per valid ride in body order, null when none of them was published,
+  a valid ride is 200 when it was published and 503 when not, invalid rides are always
+  400, status is the status of the response
+   */
+  private void writeBatchResponse(HttpServletResponse response, LiftRideBatchParser batchParser,
+      boolean[] published, int status) throws IOException {
+    int itemCount = batchParser.getItemCount();
+    int[] itemStatus = new int[itemCount];
+    int accepted = 0;
+    int record = 0;
+    for (int i = 0; i < itemCount; i++) {
+      if (!batchParser.isValid(i)) {
+        itemStatus[i] = HttpServletResponse.SC_BAD_REQUEST;
+      } else if (published != null && published[record++]) {
+        itemStatus[i] = HttpServletResponse.SC_OK;
+        accepted += 1;
+      } else {
+        itemStatus[i] = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+      }
+    }
+    byte[] body = (status + gson.toJson(new BatchResult(accepted, itemCount - accepted, itemStatus)))
+        .getBytes(StandardCharsets.UTF_8);
+    writeResponse(response, status, body);
+  }
+
+  /*
+  publishes an admitted ride, the admission is released with the publish latency when
+  the transport answers, which may be after the request has already timed out
+   */
+  static CompletableFuture<Void> publish(RidePublisher transport, AdmissionController admission,
+      LiftRideRecord liftRideRecord) {
+    long startTime = System.nanoTime();
+    CompletableFuture<Void> published = transport.publish(liftRideRecord);
+    published.whenComplete((ignored, failure) -> {
+      long latency = System.nanoTime() - startTime;
+      admission.release(latency, failure == null);
+      PUBLISH_LATENCY.observeNanos(latency);
+      if (failure == null) {
+        RIDES_PUBLISHED.increment();
+        if (AsyncLog.sampleDebug()) {
+          AsyncLog.debug("ridePublished", "skierID", liftRideRecord.getSkierID(),
+              "liftID", liftRideRecord.getLiftID(), "time", liftRideRecord.getTime());
+        }
+      } else {
+        RIDES_PUBLISH_FAILED.increment();
+      }
+    });
+    return published;
+  }
+
+  /*
+  503 with Retry-After, the client should back off rather than retry straight away
+   */
+  static void writeRetryLater(HttpServletResponse response, AdmissionController admission,
+      byte[] body) throws IOException {
+    response.setHeader("Retry-After", Long.toString(admission.getRetryAfterSeconds()));
+    writeResponse(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, body);
+  }
+
+  static void writeResponse(HttpServletResponse response, int status, byte[] body)
+      throws IOException {
+    response.setStatus(status);
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  private static byte[] responseBody(int status, String message) {
+    // same layout as before, the status code followed by the json message
+    return (status + new Gson().toJson(new Message(message))).getBytes(StandardCharsets.UTF_8);
+  }
+
+
+  static boolean isPostValid(LiftRideRecord liftRideRecord) {
+    return isPostValid(liftRideRecord.getLiftID(), liftRideRecord.getTime());
+  }
+
+  static boolean isPostValid(int liftID, int time) {
     //  liftID - between 1 and 40
     //  time - between 1 and 360
     int time_Max = 360;
     int time_Min = 1;
     int liftID_Max = 40;
     int liftID_Min = 1;
-    return liftRideRecord.getTime() >= time_Min
-        && liftRideRecord.getTime() <= time_Max
-        && liftRideRecord.getLiftID() >= liftID_Min
-        && liftRideRecord.getLiftID() <= liftID_Max;
+    return time >= time_Min
+        && time <= time_Max
+        && liftID >= liftID_Min
+        && liftID <= liftID_Max;
   }
 
+  /*
+  latency and response counts of one route, by status class
+   */
+  static final class RequestMetrics {
+    private final Metrics.Histogram latency;
+    // 1xx .. 5xx
+    private final LongAdder[] responses = new LongAdder[6];
+
+    RequestMetrics(String method, String route) {
+      latency = Metrics.histogram("skier_http_request_duration_seconds",
+          "Time spent answering a request", "method", method, "route", route);
+      for (int statusClass = 1; statusClass < responses.length; statusClass++) {
+        responses[statusClass] = Metrics.counter("skier_http_responses_total",
+            "Responses by status class", "method", method, "route", route,
+            "code", statusClass + "xx");
+      }
+    }
 
-  private  boolean isNumeric(String str) {
-    // check number is Numeric or not
-    try {
-      Double.parseDouble(str);
-      return true;
-    } catch(NumberFormatException e){
-      return false;
+    void record(int status, long startNanos) {
+      latency.observeSince(startNanos);
+      int statusClass = status / 100;
+      if (statusClass > 0 && statusClass < responses.length) {
+        responses[statusClass].increment();
+      }
     }
   }
 }
-
-
-
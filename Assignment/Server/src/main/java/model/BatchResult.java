@@ -0,0 +1,28 @@
+package model;
+
+public class BatchResult {
+
+  // response body of a batch POST, status holds one http status per ride in body order
+
+  private int accepted;
+  private int rejected;
+  private int[] status;
+
+  public BatchResult(int accepted, int rejected, int[] status) {
+    this.accepted = accepted;
+    this.rejected = rejected;
+    this.status = status;
+  }
+
+  public int getAccepted() {
+    return accepted;
+  }
+
+  public int getRejected() {
+    return rejected;
+  }
+
+  public int[] getStatus() {
+    return status;
+  }
+}